@@ -1,9 +1,39 @@
 package com;
 
+import com.javachat.config.ChatConfig;
+import com.javachat.emoji.EmojiExpander;
 import com.javachat.gui.Constants;
+import com.javachat.gui.DownloadsPanel;
+import com.javachat.gui.MediaStrip;
+import com.javachat.media.ThumbnailService;
+import com.javachat.metrics.Metrics;
+import com.javachat.metrics.StartupTimer;
+import com.javachat.net.HashedTimerWheel;
+import com.javachat.net.IdleWatchdog;
+import com.javachat.presence.PresenceBroadcaster;
+import com.javachat.presence.PresenceFrame;
+import com.javachat.presence.PresenceRegistry;
+import com.javachat.presence.PresenceState;
+import com.javachat.ratelimit.RateLimiter;
+import com.javachat.server.ChatServer;
+import com.javachat.store.AttachmentStore;
+import com.javachat.store.MessageArchive;
+import com.javachat.store.MessageStore;
+import com.javachat.store.RetentionJob;
+import com.javachat.store.RetentionPolicy;
+import com.javachat.tls.TlsContext;
+import com.javachat.trace.MessageDecodedEvent;
+import com.javachat.trace.MessageDispatchedEvent;
+import com.javachat.trace.MessagePersistedEvent;
+import com.javachat.trace.MessageTrace;
+import com.javachat.trace.MessageWrittenEvent;
+import com.javachat.transfer.AttachmentTransfer;
+import com.javachat.transfer.Download;
+import com.javachat.transfer.DownloadManager;
 import com.vdurmont.emoji.Emoji;
 import com.vdurmont.emoji.EmojiManager;
 
+import javax.net.ssl.SSLSocket;
 import javax.swing.*;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
@@ -11,13 +41,15 @@ import java.awt.*;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.io.*;
-import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.file.Files;
 import java.sql.*;
 import java.util.ArrayList;
-import java.util.Base64;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static com.javachat.gui.Constants.*;
 
@@ -27,41 +59,122 @@ public class Client extends JFrame {
     Socket socket;  // Socket to connect to the server
     BufferedReader br;
     PrintWriter out;
+    private final Object sendLock = new Object(); // Keeps lines from the EDT and timer threads whole
+    // Writes lines queued by timer callbacks, so a blocked socket never stalls the shared timer wheel
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "chat-writer");
+        t.setDaemon(true);
+        return t;
+    });
+    private final List<String> pendingLines = new ArrayList<>(); // Sent before the connection was up, guarded by sendLock
+    private CompletableFuture<Void> storeReady;   // Database initialized and history shown
+    // Saves messages in order off the EDT; waits there, not on the EDT, until the database is ready
+    private final ExecutorService saver = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "chat-store");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Presence: our own typing/online state and the server's
+    PresenceBroadcaster presence;
+    PresenceRegistry peerPresence;
+
+    IdleWatchdog watchdog; // Pings a quiet connection and closes a dead one
+    MessageStore store;    // Chat history in the Client-specific database
+    AttachmentStore attachments;   // Sent and received files, stored once per content digest
+    RetentionJob retention;        // Archives expired messages and clears history in the background
+    AttachmentTransfer transfer;   // Offers files by digest so known files are never resent
+    DownloadManager downloads;     // Spools received files off the reader thread
+    DownloadsPanel downloadsPanel; // Created on first use
+    ThumbnailService thumbnails;   // Decodes image previews on a background pool
+    MediaStrip mediaStrip;         // Image previews above the input field
     
-    // Constructor: Initializes the client and connects to the server
-    public Client() {
-        try {
-            System.out.println("Sending Request to server");
-            socket = new Socket(InetAddress.getLocalHost(), 2103);
-            System.out.println("Connection Done");
+    static final int THUMBNAIL_SIZE = 96; // Longest edge of image previews in pixels
 
-            // Set up input and output streams for communication
-            br = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            out = new PrintWriter(socket.getOutputStream());
+    // Constructor: Shows the window first, then connects and loads history in the background
+    public Client(ChatConfig config) {
+        try {
+            // Nothing here touches the network, SQLite or the emoji database yet
+            store = new MessageStore(config.dbUrl(ChatConfig.CLIENT_DB));
+            attachments = new AttachmentStore(config.attachmentDir());
+            downloads = new DownloadManager(config.downloadDir(), attachments);
+            thumbnails = new ThumbnailService(config.thumbnailDir(), THUMBNAIL_SIZE, config.thumbnailCacheBytes());
+            transfer = new AttachmentTransfer(attachments, store, this::runOnSaver, downloads, this::send, this::showReceivedFile);
+            retention = new RetentionJob(store, attachments, new MessageArchive(config.archiveDir()), RetentionPolicy.from(config));
+            watchdog = IdleWatchdog.fromConfig(config, () -> sendLater(IdleWatchdog.PING), this::closeDeadConnection);
+            presence = new PresenceBroadcaster(this::sendLater, HashedTimerWheel.shared());
+            peerPresence = new PresenceRegistry(HashedTimerWheel.shared(), this::showPeerPresence);
 
-            // Initialize database, GUI, and start operations
-            initializeDatabase();
             createGUI();
             handleEvents();
-            startReading();
-            loadChatHistory();
+            StartupTimer.mark("window");
+            SwingUtilities.invokeLater(() -> StartupTimer.mark("interactive")); // Runs once the first paint is queued
+
+            // Persistence, emoji data and the connection start in parallel
+            ExecutorService startup = Executors.newFixedThreadPool(3, r -> {
+                Thread t = new Thread(r, "chat-startup");
+                t.setDaemon(true);
+                return t;
+            });
+            storeReady = CompletableFuture.runAsync(() -> {
+                initializeDatabase();
+                loadChatHistory(); // Before anything new is saved, so nothing shows up twice
+                StartupTimer.mark("history");
+            }, startup);
+            CompletableFuture<Void> emoji = CompletableFuture.runAsync(() -> {
+                EmojiExpander.getInstance();
+                StartupTimer.mark("emoji");
+            }, startup);
+            if (config.startupTraining()) {
+                // Every class of a normal startup has been loaded, so the archive is complete
+                CompletableFuture.allOf(storeReady, emoji).thenRun(() -> SwingUtilities.invokeLater(() -> System.exit(0)));
+            } else {
+                presenceLabel.setText("Connecting to the server...");
+                startup.execute(() -> connect(config));
+            }
+            startup.shutdown(); // Threads end once these tasks are done
 
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    // Method to connect to the server, then start exchanging messages; runs in the background
+    private void connect(ChatConfig config) {
+        try {
+            System.out.println("Sending Request to server");
+            socket = new Socket();
+            config.applySocketOptions(socket); // Buffer sizes must be set before connecting
+            socket.connect(new InetSocketAddress(config.host(), config.port()));
+            TlsContext tls = TlsContext.fromConfig(config);
+            if (tls != null) socket = tls.connect(socket, config.hostName(), config.port()); // Encrypt everything from here on
+            System.out.println("Connection Done" + (tls == null ? "" : " (" + ((SSLSocket) socket).getSession().getProtocol() + ")"));
+            StartupTimer.mark("connected");
+
+            // Set up input and output streams for communication
+            br = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            synchronized (sendLock) {
+                out = new PrintWriter(socket.getOutputStream());
+                out.println(ChatServer.JOIN + config.room()); // Picks the room on a relay server
+                for (String line : pendingLines) out.println(line); // Typed before the connection was up
+                pendingLines.clear();
+                out.flush();
+            }
+            storeReady.join(); // Received messages are saved right away
+            startReading();
+            watchdog.start();
+            presence.start();
+        } catch (Exception e) {
+            System.err.println("Error connecting to server: " + e.getMessage());
+            SwingUtilities.invokeLater(() -> presenceLabel.setText("Not connected: " + e.getMessage()));
+        }
+    }
+
     // Method to initialize SQLite database and create the messages table for Client
     private void initializeDatabase() {
-        try (Connection conn = DriverManager.getConnection(Constants.CDB_URL); // Connect to Client-specific database
-             Statement stmt = conn.createStatement()) {            // Create a statement for SQL execution
-            // SQL to create a table if it doesn’t exist
-            String sql = "CREATE TABLE IF NOT EXISTS messages (" +
-                    "id INTEGER PRIMARY KEY AUTOINCREMENT, " +    // Unique ID for each message
-                    "sender TEXT NOT NULL, " +                    // Sender of the message (e.g., "Me" or "Server")
-                    "message TEXT NOT NULL, " +                   // The message content
-                    "timestamp DATETIME DEFAULT CURRENT_TIMESTAMP)"; // Auto-set timestamp (still stored but not displayed)
-            stmt.execute(sql);                                    // Execute the SQL command
+        try {
+            store.initialize();
+            retention.start();
             System.out.println("Client database initialized successfully");
         } catch (SQLException e) {
             System.err.println("Database initialization error: " + e.getMessage());
@@ -82,18 +195,24 @@ public class Client extends JFrame {
                 if (e.getKeyCode() == KeyEvent.VK_ENTER) {
                     String contentToSend = messageInput.getText().trim(); // Get and trim text from JTextArea
                     if (!contentToSend.isEmpty()) { // Only send non-empty messages
-                        messageArea.append("Me : " + contentToSend + "\n");
+                        contentToSend = EmojiExpander.expand(contentToSend); // Expand shortcodes like :fire: before sending
+                        showMessage("Me : " + contentToSend + "\n");
                         if (contentToSend.equals("exit")) {
                             messageInput.setEnabled(false);
                             emojiButton.setEnabled(false);
                             sendFileButton.setEnabled(false);
                             clearChatButton.setEnabled(false);
                         }
-                        out.println(contentToSend); // Send message to client/server
-                        out.flush();                // Ensure message is sent immediately
+                        long messageId = MessageTrace.nextId();
+                        synchronized (sendLock) { // No queued line can get between OFFLINE and exit
+                            // Tell the peer we are going offline; written here, not queued, so it arrives before exit
+                            if (contentToSend.equals("exit")) presence.stop(Client.this::send);
+                            send(contentToSend, messageId); // Send message to client/server
+                        }
                         messageInput.setText("");   // Clear input field
+                        presence.onMessageSent();   // Typing is over once the message is out
                         messageInput.requestFocus(); // Refocus on input field
-                        saveMessage("Me", contentToSend);
+                        saveMessage("Me", contentToSend, null, messageId);
 
                         if (emojiDialog != null && emojiDialog.isVisible()) {
                             emojiDialog.dispose();
@@ -102,6 +221,61 @@ public class Client extends JFrame {
                 }
             }
         });
+
+        // Report typing to the peer; the broadcaster coalesces keystrokes into rare presence frames
+        messageInput.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) { presence.onInputChanged(e.getDocument().getLength() > 0); }
+            @Override
+            public void removeUpdate(DocumentEvent e) { presence.onInputChanged(e.getDocument().getLength() > 0); }
+            @Override
+            public void changedUpdate(DocumentEvent e) {} // Attribute changes only
+        });
+    }
+
+    // Method to write one line to the peer and flush it immediately
+    private void send(String line) {
+        send(line, 0);
+    }
+
+    // Method to queue a line for the writer thread; for callers that must not block, like timer callbacks
+    private void sendLater(String line) {
+        writer.execute(() -> send(line));
+    }
+
+    // Method to send a chat message; messageId ties the write to the message's other trace events
+    private void send(String line, long messageId) {
+        MessageWrittenEvent written = MessageTrace.writing(line.length() + 1);
+        synchronized (sendLock) {
+            if (out == null) { // Still connecting: goes out as soon as the connection is up
+                pendingLines.add(line);
+                return;
+            }
+            out.println(line);
+            out.flush();
+        }
+        MessageTrace.end(written, messageId, "Server");
+        watchdog.onWrite();
+    }
+
+    // Method to close a connection that stopped sending anything, including keepalive replies
+    private void closeDeadConnection() {
+        System.out.println("No data from server within the idle timeout, closing connection");
+        try {
+            socket.close(); // Unblocks the reader, which then cleans up
+        } catch (IOException e) {
+            System.err.println("Error closing connection: " + e.getMessage());
+        }
+    }
+
+    // Method to show the peer's presence below the heading
+    private void showPeerPresence(String peer, PresenceState state) {
+        String text = switch (state) {
+            case ONLINE -> peer + " is online";
+            case TYPING -> peer + " is typing...";
+            case OFFLINE -> peer + " is offline";
+        };
+        SwingUtilities.invokeLater(() -> presenceLabel.setText(text));
     }
 
     // Method to create and configure the GUI
@@ -148,7 +322,12 @@ public class Client extends JFrame {
 
         // Set layout and add components to frame
         this.setLayout(new BorderLayout());
-        this.add(clientHeading, BorderLayout.NORTH);
+        JPanel headerPanel = new JPanel(new BorderLayout());
+        headerPanel.add(clientHeading, BorderLayout.CENTER);
+        presenceLabel.setHorizontalAlignment(SwingConstants.CENTER);
+        presenceLabel.setBorder(BorderFactory.createEmptyBorder(0, 0, 10, 0));
+        headerPanel.add(presenceLabel, BorderLayout.SOUTH); // Peer presence below the heading
+        this.add(headerPanel, BorderLayout.NORTH);
         JScrollPane jScrollPane = new JScrollPane(messageArea);
         this.add(jScrollPane, BorderLayout.CENTER);
 
@@ -167,6 +346,10 @@ public class Client extends JFrame {
         // Add message input (with scroll pane) to the center of bottom panel
         bottomPanel.add(inputScrollPane, BorderLayout.CENTER);
 
+        // Image previews above the input, hidden until the first image
+        mediaStrip = new MediaStrip(thumbnails, THUMBNAIL_SIZE);
+        bottomPanel.add(mediaStrip, BorderLayout.NORTH);
+
         // Add Clear Chat button to the west (left) of bottom panel
         clearChatButton = new JButton("Clear Chat");
         clearChatButton.setFont(Constants.font2);
@@ -185,6 +368,10 @@ public class Client extends JFrame {
         sendFileButton.addActionListener(e -> sendFile());    // Call sendFile on button click
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER)); // Use FlowLayout for multiple buttons
         buttonPanel.add(sendFileButton);
+        downloadsButton = new JButton("Downloads");
+        downloadsButton.setFont(Constants.font2);
+        downloadsButton.addActionListener(e -> showDownloads()); // Received files, saved in the background
+        buttonPanel.add(downloadsButton);
         bottomPanel.add(buttonPanel, BorderLayout.SOUTH);       // Place below input and other buttons
 
         this.add(bottomPanel, BorderLayout.SOUTH);
@@ -228,15 +415,22 @@ public class Client extends JFrame {
         });
     }
 
-    // Method to load chat history from Client-specific database (without timestamps)
+    // Method to load chat history from Client-specific database (without timestamps); runs in the background
     private void loadChatHistory() {
-        try (Connection conn = DriverManager.getConnection(Constants.CDB_URL); // Connect to Client-specific database
-             Statement statement = conn.createStatement();              // Create statement
-             ResultSet rs = statement.executeQuery("SELECT sender, message FROM messages WHERE sender IN ('Me', 'Server') ORDER BY id")) { // Query only Client-relevant messages
-            while (rs.next()) { // Iterate through result set
+        try {
+            StringBuilder history = new StringBuilder();
+            List<MediaStrip.Item> images = new ArrayList<>();
+            for (MessageStore.StoredMessage m : store.history("Me", "Server")) { // Only Client-relevant messages
                 // Append each message with sender to message area
-                messageArea.append(rs.getString("sender") + " : " + rs.getString("message") + "\n");
+                history.append(m.sender()).append(" : ").append(m.message()).append("\n");
+                if (m.attachment() != null && attachments.isImage(m.attachment())) { // By stored content, not message text; false if gone
+                    images.add(new MediaStrip.Item(m.attachment(), attachments.pathFor(m.attachment()), m.sender()));
+                }
             }
+            SwingUtilities.invokeLater(() -> {
+                messageArea.insert(history.toString(), 0); // Above anything typed while it was loading
+                images.forEach(mediaStrip::add);
+            });
         } catch (SQLException e) {
             System.err.println("Error loading chat history: " + e.getMessage());
         }
@@ -244,27 +438,57 @@ public class Client extends JFrame {
 
     // Method to clear chat history from Client-specific database and GUI
     private void clearChatHistory() {
-        try (Connection conn = DriverManager.getConnection(Constants.CDB_URL); // Connect to the respective database
-             Statement stmt = conn.createStatement()) {            // Create a statement for SQL execution
-            String sql = "DELETE FROM messages";                   // SQL to delete all rows from messages table
-            stmt.execute(sql);                                     // Execute the deletion
-            System.out.println("Chat history cleared successfully");
-            messageArea.setText("");                               // Clear the GUI message area
-        } catch (SQLException e) {
-            System.err.println("Error clearing chat history: " + e.getMessage());
-        }
+        messageArea.setText("");                                   // Clear the GUI message area right away
+        mediaStrip.clear();                                        // And the image previews
+        storeReady.thenCompose(v -> retention.clearAll()).whenComplete((rows, e) -> { // Rows are deleted in batches off the EDT
+            if (e != null) System.err.println("Error clearing chat history: " + e.getMessage());
+            else System.out.println("Chat history cleared successfully, " + rows + " message(s) deleted");
+        });
     }
 
     // Method to save a message to Client-specific database
     private void saveMessage(String sender, String message) {
-        try (Connection conn = DriverManager.getConnection(Constants.CDB_URL); // Connect to Client-specific database
-             PreparedStatement preparedStatement = conn.prepareStatement("INSERT INTO messages (sender, message) VALUES (?, ?)")) { // Prepare SQL insert
-            preparedStatement.setString(1, sender);    // Set sender
-            preparedStatement.setString(2, message);   // Set message content
-            preparedStatement.executeUpdate();         // Execute the insert
-        } catch (SQLException e) {
-            System.err.println("Error saving message: " + e.getMessage());
-        }
+        saveMessage(sender, message, null);
+    }
+
+    // Method to save a message referencing an attachment digest (may be null)
+    private void saveMessage(String sender, String message, String attachment) {
+        saveMessage(sender, message, attachment, 0);
+    }
+
+    // Method to queue a message for saving and trace it under the given message id
+    private void saveMessage(String sender, String message, String attachment, long messageId) {
+        runOnSaver(() -> {
+            try {
+                MessagePersistedEvent persisted = MessageTrace.persisting();
+                store.save(sender, message, attachment);
+                MessageTrace.end(persisted, messageId, sender);
+            } catch (SQLException e) {
+                System.err.println("Error saving message: " + e.getMessage());
+            }
+        });
+    }
+
+    // Method to run a database task on the saver thread, in order with the saved messages
+    private void runOnSaver(Runnable task) {
+        saver.execute(() -> {
+            storeReady.join(); // Only waits if a message is sent within the first moments after startup
+            task.run();
+        });
+    }
+
+    // Method to show a notice or our own line; every append goes through the EDT queue, in order
+    private void showMessage(String text) {
+        showMessage(text, 0);
+    }
+
+    // Method to show a received message; it is appended on the EDT, which the trace times
+    private void showMessage(String text, long messageId) {
+        MessageDispatchedEvent dispatched = MessageTrace.dispatching();
+        SwingUtilities.invokeLater(() -> {
+            messageArea.append(text);
+            MessageTrace.end(dispatched, messageId, "Server");
+        });
     }
     // Method to show an emoji picker dialog
     private void showEmojiPicker() {
@@ -367,13 +591,14 @@ public class Client extends JFrame {
             File selectedFile = fileChooser.getSelectedFile();
             try {
                 byte[] fileBytes = Files.readAllBytes(selectedFile.toPath());
-                String base64File = Base64.getEncoder().encodeToString(fileBytes);
                 String fileType = getFileType(selectedFile.getName());
-                String message = "FILE:" + fileType + ":" + base64File;
-                out.println(message); // Send to server
-                out.flush();         // Ensure message is sent immediately
-                messageArea.append("Me: Sent " + fileType + " file: " + selectedFile.getName() + "\n"); // Indicate in GUI with icon
-                saveMessage("Me", "Sent " + fileType + " file: " + selectedFile.getName()); // Save to database (text description)
+                // Only the digest goes out now; the bytes follow if the peer does not have them yet
+                String digest = transfer.offer(fileBytes, fileType, selectedFile.getName());
+                showMessage("Me: Sent " + fileType + " file: " + selectedFile.getName() + "\n"); // Indicate in GUI with icon
+                saveMessage("Me", "Sent " + fileType + " file: " + selectedFile.getName(), digest); // Save to database (text description)
+                if (fileType.equals("image")) {
+                    mediaStrip.add(new MediaStrip.Item(digest, attachments.pathFor(digest), "Me: " + selectedFile.getName()));
+                }
             } catch (IOException e) {
                 System.err.println("Error sending file: " + e.getMessage());
                 JOptionPane.showMessageDialog(this, "Failed to send file: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
@@ -394,33 +619,24 @@ public class Client extends JFrame {
         };
     }
 
-    // Method to save a file to the local disk
-    private void saveFileLocally(String fileType, byte[] fileBytes) {
-        JFileChooser fileChooser = new JFileChooser();
-        fileChooser.setCurrentDirectory(new File(System.getProperty("user.home")));
-        fileChooser.setSelectedFile(new File("received_" + fileType + "_" + System.currentTimeMillis() + "." + getExtension(fileType)));
-        int result = fileChooser.showSaveDialog(this);
-        if (result == JFileChooser.APPROVE_OPTION) {
-            File outputFile = fileChooser.getSelectedFile();
-            try {
-                Files.write(outputFile.toPath(), fileBytes);
-                System.out.println("File saved successfully: " + outputFile.getAbsolutePath());
-            } catch (IOException e) {
-                System.err.println("Error saving file: " + e.getMessage());
-            }
+    // Method to announce a file received from the peer; it is saved in the background
+    private void showReceivedFile(String peer, Download download) {
+        showMessage(peer + ": Sent " + download.fileType() + " file (see Downloads)\n"); // Indicate in GUI with icon
+        if (download.fileType().equals("image")) {
+            // Preview once the file is stored; the thumbnail itself is built lazily by the strip
+            download.done().thenAccept(d -> {
+                if (d.status() == Download.Status.DONE) {
+                    SwingUtilities.invokeLater(() -> mediaStrip.add(new MediaStrip.Item(d.digest(), d.file(), peer + ": " + d.name())));
+                }
+            });
         }
     }
 
-    // Method to get the file extension based on the file type
-    private String getExtension(String fileType) {
-        return switch (fileType.toLowerCase()) {
-            case "image" -> "png";
-            case "pdf" -> "pdf";
-            case "document" -> "docx";
-            case "text" -> "txt";
-            case "archive" -> "zip";
-            default -> "bin";
-        };
+    // Method to show the non-modal downloads window
+    private void showDownloads() {
+        if (downloadsPanel == null) downloadsPanel = new DownloadsPanel(this, downloads);
+        downloadsPanel.setVisible(true);
+        downloadsPanel.toFront();
     }
 
     // Method to start reading messages from the server in a separate thread
@@ -430,9 +646,24 @@ public class Client extends JFrame {
             try {
                 while (true) {
                     String msg = br.readLine();
+                    if (msg == null) break;             // Peer closed the connection
+                    long messageId = MessageTrace.nextId();
+                    MessageTrace.received(messageId, "Server", (int) RateLimiter.utf8Length(msg) + 1); // Bytes on the wire, like the server counts them
+                    MessageDecodedEvent decoded = MessageTrace.decoding();
+                    watchdog.onRead();
+                    if (watchdog.handleKeepalive(msg, this::send)) { // PING/PONG are not chat messages
+                        MessageTrace.decoded(decoded, messageId, "Server", "keepalive");
+                        continue;
+                    }
+                    if (msg.startsWith(PresenceFrame.PREFIX)) { // Presence updates never show up as chat
+                        peerPresence.onFrame("Server", msg);
+                        MessageTrace.decoded(decoded, messageId, "Server", "presence");
+                        continue;
+                    }
                     if (msg.equals("exit")) {
-                        messageArea.append("Server: " + msg + "\n"); // Add computer icon for Server
-                        saveMessage("Server", msg); // Save exit message in Client-specific database
+                        MessageTrace.decoded(decoded, messageId, "Server", "exit");
+                        showMessage("Server: " + msg + "\n", messageId); // Add computer icon for Server
+                        saveMessage("Server", msg, null, messageId); // Save exit message in Client-specific database
                         System.out.println("Server terminated the chat");
                         JOptionPane.showMessageDialog(this, "Server Terminated the chat");
                         messageInput.setEnabled(false); // Disable input
@@ -441,30 +672,26 @@ public class Client extends JFrame {
                         out.flush();                    // Flush output
                         break;
                     }
-                    if (msg.startsWith("FILE:")) { // Handle file message
-                        String[] parts = msg.split(":", 3); // Split into "FILE", type, and base64 data
-                        if (parts.length == 3) {
-                            String fileType = parts[1];
-                            String base64File = parts[2];
-                            try {
-                                byte[] fileBytes = Base64.getDecoder().decode(base64File);
-                                saveFileLocally(fileType, fileBytes); // Save file to local disk
-                                messageArea.append("Server: Sent " + fileType + " file\n"); // Indicate in GUI with icon
-                                saveMessage("Server", "Sent " + fileType + " file"); // Save to database (text description)
-                                JOptionPane.showMessageDialog(this, "Received " + fileType + " file", "File Received", JOptionPane.INFORMATION_MESSAGE);
-                            } catch (Exception e) {
-                                System.err.println("Error decoding file: " + e.getMessage());
-                                messageArea.append("Server: Error receiving file\n"); // Add computer icon for Server
-                            }
-                        }
-                    } else {
-                        messageArea.append("Server: " + msg + "\n");
-                        saveMessage("Server", msg);
+                    if (transfer.handle("Server", msg)) { // File offers, replies and contents
+                        MessageTrace.decoded(decoded, messageId, "Server", "transfer");
+                        continue;
                     }
+                    MessageTrace.decoded(decoded, messageId, "Server", "text");
+                    showMessage("Server: " + msg + "\n", messageId);
+                    saveMessage("Server", msg, null, messageId);
                 }
             } catch (Exception e) {
                 System.out.println("Connection closed");
             }
+            watchdog.stop();
+            try {
+                socket.close(); // Release the socket whether the peer left cleanly or died
+            } catch (IOException e) {
+                System.err.println("Error closing connection: " + e.getMessage());
+            }
+            peerPresence.remove("Server"); // The peer is gone, whatever its last heartbeat said
+            transfer.onDisconnected();     // Files asked for on this connection will not arrive any more
+            System.out.println(Metrics.report());
         };
         new Thread(r1).start();
     }
@@ -472,6 +699,6 @@ public class Client extends JFrame {
     // Main method to start the client
     public static void main(String[] args) {
         System.out.println("This is client...");
-        new Client();
+        new Client(ChatConfig.load(args));
     }
 }
\ No newline at end of file
@@ -0,0 +1,22 @@
+package com.javachat;
+
+import com.Server;
+import com.javachat.config.ChatConfig;
+import com.javachat.server.ChatServer;
+
+// Entry point that reads the configuration and starts the server in GUI or headless mode.
+// Usage: java com.javachat.Bootstrap [--chat.headless] [--chat.port=2103] [--chat.bind.address=0.0.0.0] ...
+// In headless mode no Swing or AWT class is loaded, so it runs on machines without a display.
+public class Bootstrap {
+    public static void main(String[] args) throws Exception {
+        ChatConfig config = ChatConfig.load(args);
+        if (config.headless()) {
+            System.setProperty("java.awt.headless", "true"); // Fail fast if anything still reaches for AWT
+            ChatServer server = new ChatServer(config);
+            Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "chat-shutdown"));
+            server.start();
+        } else {
+            new Server(config); // Only loaded in GUI mode
+        }
+    }
+}
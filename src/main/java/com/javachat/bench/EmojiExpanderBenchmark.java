@@ -0,0 +1,66 @@
+package com.javachat.bench;
+
+import com.javachat.emoji.EmojiExpander;
+import com.vdurmont.emoji.EmojiParser;
+
+// Compares the trie-based EmojiExpander with emoji-java's EmojiParser.parseToUnicode.
+// Run with: java -cp <classpath> com.javachat.bench.EmojiExpanderBenchmark [iterations]
+public class EmojiExpanderBenchmark {
+    // Typical chat traffic: mostly plain text, some shortcodes, some stray colons
+    private static final String[] MESSAGES = {
+            "hey, are you coming to the meeting later?",
+            "that was awesome :fire: :fire:",
+            "lol :joy: :joy: :rolling_on_the_floor_laughing:",
+            "time is 10:30, see you there",
+            "love it :heart_eyes: :sparkling_heart: thanks!",
+            "ok",
+            "note: this :isnotanemoji: stays as is",
+            "good night :sleeping: :crescent_moon:",
+    };
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+
+        // Build both lookup structures before timing anything
+        long buildStart = System.nanoTime();
+        EmojiExpander expander = EmojiExpander.getInstance();
+        System.out.printf("Trie build: %.1f ms%n", (System.nanoTime() - buildStart) / 1e6);
+        EmojiParser.parseToUnicode(":smile:");
+
+        // Both implementations must agree on the test messages
+        for (String message : MESSAGES) {
+            String expected = EmojiParser.parseToUnicode(message);
+            String actual = expander.expandAliases(message);
+            if (!expected.equals(actual)) {
+                System.out.println("Mismatch for \"" + message + "\": " + expected + " vs " + actual);
+            }
+        }
+
+        for (int round = 1; round <= 3; round++) { // First rounds double as JIT warm-up
+            System.out.println("Round " + round);
+            report("EmojiParser.parseToUnicode", iterations, () -> {
+                int sink = 0;
+                for (int i = 0; i < iterations; i++) {
+                    sink += EmojiParser.parseToUnicode(MESSAGES[i % MESSAGES.length]).length();
+                }
+                return sink;
+            });
+            report("EmojiExpander.expandAliases", iterations, () -> {
+                int sink = 0;
+                for (int i = 0; i < iterations; i++) {
+                    sink += expander.expandAliases(MESSAGES[i % MESSAGES.length]).length();
+                }
+                return sink;
+            });
+        }
+    }
+
+    // Runs the workload once and prints throughput
+    private static void report(String name, int iterations, java.util.function.IntSupplier workload) {
+        long start = System.nanoTime();
+        int sink = workload.getAsInt();
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("  %-30s %8.0f ns/msg  %,12.0f msg/s  (sink %d)%n",
+                name, (double) elapsed / iterations, iterations * 1e9 / elapsed, sink);
+    }
+}
@@ -0,0 +1,55 @@
+package com.javachat.bench;
+
+import com.javachat.config.ChatConfig;
+
+// Network conditions the impairment proxy applies to each direction of every connection
+public record Impairment(
+        long latencyMillis,          // Added one-way delay
+        long jitterMillis,           // Extra random delay between 0 and this, per chunk
+        long bandwidthKbps,          // Link speed in kilobits per second; 0 means unlimited
+        double reorderPercent,       // Chunks that arrive late, stalling the stream behind them
+        long reorderDelayMillis,     // How late such a chunk arrives
+        long disconnectMeanSeconds,  // Mean time until a connection is reset; 0 never resets
+        long seed) {                 // Seeds every random decision, so runs can be repeated
+
+    public static final String LATENCY_MS = "chat.impair.latencyMs";
+    public static final String JITTER_MS = "chat.impair.jitterMs";
+    public static final String BANDWIDTH_KBPS = "chat.impair.bandwidthKbps";
+    public static final String REORDER_PERCENT = "chat.impair.reorderPercent";
+    public static final String REORDER_DELAY_MS = "chat.impair.reorderDelayMs";
+    public static final String DISCONNECT_MEAN_SECONDS = "chat.impair.disconnectMeanSeconds";
+    public static final String SEED = "chat.impair.seed";
+
+    public static final Impairment NONE = new Impairment(0, 0, 0, 0, 0, 0, 1);
+
+    public static Impairment from(ChatConfig config) {
+        double reorder;
+        try {
+            reorder = Double.parseDouble(config.getString(REORDER_PERCENT, "0"));
+        } catch (NumberFormatException e) {
+            reorder = 0;
+        }
+        return new Impairment(
+                Math.max(0, config.getLong(LATENCY_MS, 0)),
+                Math.max(0, config.getLong(JITTER_MS, 0)),
+                Math.max(0, config.getLong(BANDWIDTH_KBPS, 0)),
+                Math.min(100, Math.max(0, reorder)),
+                Math.max(0, config.getLong(REORDER_DELAY_MS, 100)),
+                Math.max(0, config.getLong(DISCONNECT_MEAN_SECONDS, 0)),
+                config.getLong(SEED, 1));
+    }
+
+    // Nanoseconds the link needs to put this many bytes on the wire
+    long transmitNanos(int bytes) {
+        return bandwidthKbps == 0 ? 0 : bytes * 8_000_000L / bandwidthKbps;
+    }
+
+    @Override
+    public String toString() {
+        return latencyMillis + " ms +0.." + jitterMillis + " ms, "
+                + (bandwidthKbps == 0 ? "unlimited" : bandwidthKbps + " kbit/s") + ", "
+                + reorderPercent + "% late by " + reorderDelayMillis + " ms, "
+                + (disconnectMeanSeconds == 0 ? "no resets" : "reset every ~" + disconnectMeanSeconds + " s")
+                + ", seed " + seed;
+    }
+}
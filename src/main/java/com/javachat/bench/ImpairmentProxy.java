@@ -0,0 +1,289 @@
+package com.javachat.bench;
+
+import com.javachat.config.ChatConfig;
+import com.javachat.net.HashedTimerWheel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// TCP proxy that makes loopback behave like a WAN link. Put it between a client and the server
+// and every byte is delayed, rate limited and occasionally held back on its way through:
+//   java -cp <classpath> com.javachat.bench.ImpairmentProxy --chat.port=2103 \
+//        --chat.impair.listenPort=2104 --chat.impair.latencyMs=60 --chat.impair.jitterMs=20
+// then point the client at port 2104. Each direction of a connection is modelled as a link of
+// bandwidthKbps with a delay line behind it. The stream stays in order, as TCP would deliver it,
+// so a chunk that arrives late (the effect of reordering or a lost segment) stalls everything
+// behind it. Connections can also be reset at random or all at once with disconnectAll().
+// Random decisions are seeded per connection, so a scenario can be replayed.
+public class ImpairmentProxy implements AutoCloseable {
+    public static final String LISTEN_PORT = "chat.impair.listenPort";
+
+    private static final int CHUNK_BYTES = 4096;     // Read size; smaller chunks model slow links better
+    private static final int IN_FLIGHT_CHUNKS = 4096; // Delay-line capacity per direction
+    private static final long SLACK_NANOS = TimeUnit.MILLISECONDS.toNanos(5); // How far the reader may run ahead of the link
+
+    private final ServerSocket server;
+    private final InetSocketAddress target;
+    private final Set<Link> links = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger nextLink = new AtomicInteger();
+    private volatile Impairment impairment;
+
+    public ImpairmentProxy(int listenPort, InetSocketAddress target, Impairment impairment) throws IOException {
+        this.server = new ServerSocket(listenPort);
+        this.target = target;
+        this.impairment = impairment;
+    }
+
+    public static void main(String[] args) throws Exception {
+        ChatConfig config = ChatConfig.load(args);
+        Impairment impairment = Impairment.from(config);
+        InetSocketAddress target = new InetSocketAddress(config.host(), config.port());
+        ImpairmentProxy proxy = new ImpairmentProxy(config.getInt(LISTEN_PORT, config.port() + 1), target, impairment);
+        System.out.println("Impairment proxy on port " + proxy.port() + " -> " + target + ": " + impairment);
+        proxy.acceptLoop();
+    }
+
+    public int port() {
+        return server.getLocalPort();
+    }
+
+    // Accepts connections on a background thread
+    public ImpairmentProxy start() {
+        Thread thread = new Thread(this::acceptLoop, "impair-accept-" + port());
+        thread.setDaemon(true);
+        thread.start();
+        return this;
+    }
+
+    // Conditions for connections opened from now on
+    public void setImpairment(Impairment impairment) {
+        this.impairment = impairment;
+    }
+
+    // Resets every open connection, as a dropped NAT mapping or a network switch would; returns how many
+    public int disconnectAll() {
+        int count = 0;
+        for (Link link : links) {
+            if (link.reset()) count++;
+        }
+        return count;
+    }
+
+    @Override
+    public void close() {
+        try {
+            server.close();
+        } catch (IOException e) {
+            System.err.println("Error closing proxy socket: " + e.getMessage());
+        }
+        disconnectAll();
+    }
+
+    private void acceptLoop() {
+        while (!server.isClosed()) {
+            Socket client;
+            try {
+                client = server.accept();
+            } catch (IOException e) {
+                if (!server.isClosed()) System.err.println("Error accepting proxy connection: " + e.getMessage());
+                continue;
+            }
+            int id = nextLink.incrementAndGet();
+            Impairment current = impairment;
+            Thread connector = new Thread(() -> connect(id, client, current), "impair-" + id + "-connect");
+            connector.setDaemon(true);
+            connector.start();
+        }
+    }
+
+    // Opens the server side after one round trip, the time a TCP handshake takes on the modelled link
+    private void connect(int id, Socket client, Impairment impairment) {
+        try {
+            Thread.sleep(2 * impairment.latencyMillis());
+            Socket upstream = new Socket();
+            upstream.setTcpNoDelay(true);
+            upstream.connect(target);
+            client.setTcpNoDelay(true);
+            new Link(id, client, upstream, impairment).start();
+        } catch (IOException e) {
+            System.err.println("Error connecting proxy to " + target + ": " + e.getMessage());
+            closeQuietly(client);
+        } catch (InterruptedException e) {
+            closeQuietly(client);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // Already gone
+        }
+    }
+
+    // One proxied connection: an impaired pipe in each direction
+    private final class Link {
+        final int id;
+        final Socket client;
+        final Socket upstream;
+        final Impairment impairment;
+        final AtomicBoolean closed = new AtomicBoolean();
+        final AtomicInteger openPipes = new AtomicInteger(2);
+        final Pipe[] pipes = new Pipe[2];
+
+        Link(int id, Socket client, Socket upstream, Impairment impairment) {
+            this.id = id;
+            this.client = client;
+            this.upstream = upstream;
+            this.impairment = impairment;
+        }
+
+        void start() {
+            // Spread the seed so neighbouring connections and directions get unrelated sequences
+            long seed = impairment.seed() ^ (id * 0x9E3779B97F4A7C15L);
+            pipes[0] = new Pipe(this, client, upstream, new Random(seed), "impair-" + id + "-up");
+            pipes[1] = new Pipe(this, upstream, client, new Random(seed ^ 0x5DEECE66DL), "impair-" + id + "-down");
+            links.add(this);
+            for (Pipe pipe : pipes) pipe.start();
+            if (impairment.disconnectMeanSeconds() > 0) {
+                // Exponentially distributed lifetime, i.e. resets arrive at a constant rate
+                double lifetime = -Math.log(1 - new Random(seed).nextDouble()) * impairment.disconnectMeanSeconds();
+                HashedTimerWheel.shared().schedule(this::reset, Math.max(1, (long) (lifetime * 1000)), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        // Aborts both sides with a TCP reset; returns false if the link was already closed
+        boolean reset() {
+            if (closed.get()) return false;
+            try {
+                client.setSoLinger(true, 0);
+                upstream.setSoLinger(true, 0);
+            } catch (SocketException ignored) {
+                // Closed meanwhile; a normal close will do
+            }
+            return close();
+        }
+
+        boolean close() {
+            if (!closed.compareAndSet(false, true)) return false;
+            links.remove(this);
+            closeQuietly(client);
+            closeQuietly(upstream);
+            for (Pipe pipe : pipes) pipe.stop(); // Writers may be waiting for chunks that never come
+            return true;
+        }
+
+        // Both directions have ended cleanly
+        void pipeDone() {
+            if (openPipes.decrementAndGet() == 0) close();
+        }
+    }
+
+    // One direction: the reader plays the sending link, the writer the far end of the delay line
+    private static final class Pipe {
+        static final Chunk EOF = new Chunk(null, 0);
+
+        final Link link;
+        final Socket from;
+        final Socket to;
+        final Random random;
+        final BlockingQueue<Chunk> inFlight = new ArrayBlockingQueue<>(IN_FLIGHT_CHUNKS);
+        final Thread reader;
+        final Thread writer;
+
+        Pipe(Link link, Socket from, Socket to, Random random, String name) {
+            this.link = link;
+            this.from = from;
+            this.to = to;
+            this.random = random;
+            this.reader = new Thread(this::readLoop, name + "-read");
+            this.writer = new Thread(this::writeLoop, name + "-write");
+            reader.setDaemon(true);
+            writer.setDaemon(true);
+        }
+
+        void start() {
+            reader.start();
+            writer.start();
+        }
+
+        void stop() {
+            reader.interrupt();
+            writer.interrupt();
+        }
+
+        private void readLoop() {
+            Impairment impairment = link.impairment;
+            byte[] buffer = new byte[CHUNK_BYTES];
+            long linkFreeAt = 0;  // When the link has finished sending the previous chunk (ns)
+            long lastArrival = 0; // Arrival time of the previous chunk (ns)
+            try {
+                InputStream in = from.getInputStream();
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    long now = System.nanoTime();
+                    linkFreeAt = Math.max(now, linkFreeAt) + impairment.transmitNanos(n);
+                    long delayMillis = impairment.latencyMillis();
+                    if (impairment.jitterMillis() > 0) delayMillis += (long) (random.nextDouble() * impairment.jitterMillis());
+                    if (random.nextDouble() * 100 < impairment.reorderPercent()) delayMillis += impairment.reorderDelayMillis();
+                    long arrival = Math.max(linkFreeAt + TimeUnit.MILLISECONDS.toNanos(delayMillis), lastArrival); // In order, like TCP
+                    lastArrival = arrival;
+                    inFlight.put(new Chunk(Arrays.copyOf(buffer, n), arrival));
+                    // The sender only gets to send more once the link is nearly free; the slack keeps
+                    // sleep overshoot from eating into the bandwidth
+                    sleepUntil(linkFreeAt - SLACK_NANOS);
+                }
+                inFlight.put(EOF);
+            } catch (IOException e) {
+                link.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                link.close();
+            }
+        }
+
+        private void writeLoop() {
+            try {
+                OutputStream out = to.getOutputStream();
+                while (true) {
+                    Chunk chunk = inFlight.take();
+                    if (chunk == EOF) {
+                        to.shutdownOutput(); // Pass the half-close on once everything has arrived
+                        link.pipeDone();
+                        return;
+                    }
+                    sleepUntil(chunk.arrival);
+                    out.write(chunk.bytes);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                link.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                link.close();
+            }
+        }
+
+        private static void sleepUntil(long nanoTime) throws InterruptedException {
+            long wait = nanoTime - System.nanoTime();
+            if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    private record Chunk(byte[] bytes, long arrival) {
+    }
+}
@@ -0,0 +1,89 @@
+package com.javachat.bench;
+
+import com.javachat.store.MessageStore;
+import com.javachat.store.ShardedMessageStore;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Insert throughput of one synchronously written database against the sharded store with
+// 1, 2, 4, ... shards. Producer threads save messages for many conversations at once, as the
+// server's workers do. Every configuration writes to fresh files in a temporary directory.
+// Run with: java -cp <classpath> com.javachat.bench.MessageStoreBenchmark [messages] [maxShards]
+public class MessageStoreBenchmark {
+    private static final int PRODUCERS = 8;
+    private static final int CONVERSATIONS = 256;
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int maxShards = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        Path dir = Files.createTempDirectory("chat-store-bench");
+        System.out.println(messages + " messages from " + PRODUCERS + " threads, " + Runtime.getRuntime().availableProcessors() + " cores");
+
+        for (int round = 1; round <= 2; round++) { // First round doubles as JIT warm-up
+            System.out.println("Round " + round);
+            System.out.printf("  one database, commit per message: %10.0f msg/s%n", synchronous(dir.resolve(round + "-sync.db"), messages));
+            for (int shards = 1; shards <= maxShards; shards *= 2) {
+                System.out.printf("  %2d shard(s), group commit:         %10.0f msg/s%n", shards, sharded(dir.resolve(round + "-sharded-" + shards + ".db"), shards, messages));
+            }
+        }
+    }
+
+    private static double synchronous(Path file, int messages) throws Exception {
+        MessageStore store = new MessageStore("jdbc:sqlite:" + file);
+        store.initialize();
+        long start = System.nanoTime();
+        produce(messages, (conversation, text) -> store.save(conversation, "bench", text, null));
+        double rate = messages / ((System.nanoTime() - start) / 1e9);
+        store.close();
+        return rate;
+    }
+
+    private static double sharded(Path file, int shards, int messages) throws Exception {
+        ShardedMessageStore store = new ShardedMessageStore("jdbc:sqlite:" + file, shards);
+        store.initialize();
+        List<CompletableFuture<Long>> saved = new ArrayList<>(messages);
+        long start = System.nanoTime();
+        produce(messages, (conversation, text) -> {
+            CompletableFuture<Long> id = store.save(conversation, "bench", text, null);
+            synchronized (saved) {
+                saved.add(id);
+            }
+        });
+        CompletableFuture.allOf(saved.toArray(new CompletableFuture<?>[0])).join(); // Until everything is committed
+        double rate = messages / ((System.nanoTime() - start) / 1e9);
+        if (store.count() != messages) throw new IllegalStateException("Expected " + messages + " rows, found " + store.count());
+        store.close();
+        return rate;
+    }
+
+    // Spreads the messages over the producer threads and waits for them to finish
+    private static void produce(int messages, Save save) throws Exception {
+        ExecutorService producers = Executors.newFixedThreadPool(PRODUCERS);
+        List<CompletableFuture<Void>> done = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            int producer = p;
+            done.add(CompletableFuture.runAsync(() -> {
+                for (int i = producer; i < messages; i += PRODUCERS) {
+                    try {
+                        save.run("room-" + (i % CONVERSATIONS), "message " + i + " from the store benchmark");
+                    } catch (SQLException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }, producers));
+        }
+        CompletableFuture.allOf(done.toArray(new CompletableFuture<?>[0])).join();
+        producers.shutdown();
+    }
+
+    private interface Save {
+        void run(String conversation, String text) throws SQLException;
+    }
+}
@@ -0,0 +1,188 @@
+package com.javachat.bench;
+
+import com.javachat.config.ChatConfig;
+import com.javachat.server.ChatServer;
+import com.javachat.tls.TlsContext;
+import com.javachat.transfer.AttachmentTransfer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+
+// Compares plaintext and TLS on the headless server: connection setup cost (plain TCP,
+// full TLS handshake, resumed TLS handshake) and relay throughput between two clients.
+// A self-signed EC key pair is generated with keytool in a temporary directory.
+// Run with: java -cp <classpath> com.javachat.bench.TlsBenchmark [connections] [megabytes]
+public class TlsBenchmark {
+    private static final String PASSWORD = "changeit";
+    private static final int LINE_BYTES = 1024;
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int megabytes = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+
+        // Measure the transport, not the rate limits
+        for (String scope : new String[]{"connection", "room"}) {
+            System.setProperty("chat.rate." + scope + ".messagesPerSec", "1000000000");
+            System.setProperty("chat.rate." + scope + ".messageBurst", "1000000000000");
+            System.setProperty("chat.rate." + scope + ".bytesPerSec", "1000000000");
+            System.setProperty("chat.rate." + scope + ".byteBurst", "1000000000000");
+        }
+
+        Path dir = Files.createTempDirectory("chat-tls-bench");
+        Path keyStore = dir.resolve("bench.p12");
+        generateKeyStore(keyStore);
+
+        ChatConfig plainConfig = config(dir, freePort(), false, keyStore);
+        ChatConfig tlsConfig = config(dir, freePort(), true, keyStore);
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // The servers log every connection
+        try {
+            ChatServer plainServer = start(plainConfig);
+            ChatServer tlsServer = start(tlsConfig);
+
+            for (int round = 1; round <= 3; round++) { // First rounds double as JIT warm-up
+                console.println("Round " + round);
+                console.printf("  connect, plain TCP:   %8.3f ms%n", connectPlain(plainConfig, connections));
+                console.printf("  connect, full TLS:    %8.3f ms%n", connectTls(tlsConfig, connections, false));
+                console.printf("  connect, resumed TLS: %8.3f ms%n", connectTls(tlsConfig, connections, true));
+                console.printf("  relay, plain TCP:     %8.1f MB/s%n", relay(plainConfig, null, megabytes));
+                console.printf("  relay, TLS:           %8.1f MB/s%n", relay(tlsConfig, TlsContext.fromConfig(tlsConfig), megabytes));
+            }
+
+            plainServer.stop();
+            tlsServer.stop();
+        } finally {
+            System.setOut(console);
+        }
+    }
+
+    // Average time to connect and, for TLS, complete the handshake
+    private static double connectPlain(ChatConfig config, int count) throws IOException {
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            long start = System.nanoTime();
+            Socket socket = connect(config);
+            total += System.nanoTime() - start;
+            socket.close();
+        }
+        return total / 1e6 / count;
+    }
+
+    private static double connectTls(ChatConfig config, int count, boolean resume) throws Exception {
+        TlsContext shared = TlsContext.fromConfig(config);
+        if (resume) connect(config, shared).close(); // Gets the first session ticket
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            TlsContext tls = resume ? shared : TlsContext.fromConfig(config); // A fresh context has no session to resume
+            long start = System.nanoTime();
+            Socket socket = connect(config, tls);
+            total += System.nanoTime() - start;
+            socket.close();
+        }
+        return total / 1e6 / count;
+    }
+
+    // One client sends megabytes of relayed-only lines, another receives them; returns MB/s
+    private static double relay(ChatConfig config, TlsContext tls, int megabytes) throws Exception {
+        int lines = megabytes * 1024 * 1024 / LINE_BYTES;
+        String line = AttachmentTransfer.BLOB + "bench:" + "x".repeat(LINE_BYTES - AttachmentTransfer.BLOB.length() - 6);
+        try (Socket receiver = connect(config, tls); Socket sender = connect(config, tls)) {
+            Thread.sleep(100); // Both must be registered before the first line is relayed
+            CompletableFuture<Long> received = CompletableFuture.supplyAsync(() -> {
+                try {
+                    BufferedReader in = new BufferedReader(new InputStreamReader(receiver.getInputStream(), StandardCharsets.UTF_8));
+                    int count = 0;
+                    String text;
+                    while (count < lines && (text = in.readLine()) != null) {
+                        if (text.startsWith(AttachmentTransfer.BLOB)) count++;
+                    }
+                    return System.nanoTime();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            long start = System.nanoTime();
+            PrintWriter out = new PrintWriter(sender.getOutputStream(), false, StandardCharsets.UTF_8);
+            for (int i = 0; i < lines; i++) out.println(line);
+            out.flush();
+            long end = received.get();
+            return (double) lines * LINE_BYTES / (1024 * 1024) / ((end - start) / 1e9);
+        }
+    }
+
+    private static Socket connect(ChatConfig config) throws IOException {
+        Socket socket = new Socket();
+        config.applySocketOptions(socket);
+        socket.connect(new InetSocketAddress("127.0.0.1", config.port()));
+        return socket;
+    }
+
+    private static Socket connect(ChatConfig config, TlsContext tls) throws IOException {
+        Socket socket = connect(config);
+        return tls == null ? socket : tls.connect(socket, "127.0.0.1", config.port());
+    }
+
+    private static ChatServer start(ChatConfig config) throws Exception {
+        ChatServer server = new ChatServer(config);
+        Thread thread = new Thread(() -> {
+            try {
+                server.start();
+            } catch (IOException e) {
+                System.err.println("Benchmark server failed: " + e.getMessage());
+            }
+        }, "bench-server-" + config.port());
+        thread.setDaemon(true);
+        thread.start();
+        for (int attempt = 0; attempt < 100; attempt++) { // Wait until it accepts connections
+            try {
+                new Socket("127.0.0.1", config.port()).close();
+                return server;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IOException("Server on port " + config.port() + " did not start");
+    }
+
+    private static ChatConfig config(Path dir, int port, boolean tls, Path keyStore) {
+        return ChatConfig.load(new String[]{
+                "--chat.port=" + port,
+                "--chat.store.dir=" + dir.resolve("store-" + port),
+                "--" + TlsContext.ENABLED + "=" + tls,
+                "--" + TlsContext.KEY_STORE + "=" + keyStore,
+                "--" + TlsContext.KEY_STORE_PASSWORD + "=" + PASSWORD,
+                "--" + TlsContext.TRUST_STORE + "=" + keyStore,
+                "--" + TlsContext.TRUST_STORE_PASSWORD + "=" + PASSWORD,
+        });
+    }
+
+    // Self-signed EC certificate for localhost, valid for a day
+    private static void generateKeyStore(Path keyStore) throws IOException, InterruptedException {
+        String keytool = Paths.get(System.getProperty("java.home"), "bin", "keytool").toString();
+        Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "chat", "-keyalg", "EC", "-groupname", "secp256r1",
+                "-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1", "-validity", "1",
+                "-storetype", "PKCS12", "-keystore", keyStore.toString(), "-storepass", PASSWORD, "-keypass", PASSWORD)
+                .inheritIO()
+                .start();
+        if (process.waitFor() != 0) throw new IOException("keytool failed with exit code " + process.exitValue());
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.javachat.bench;
+
+import com.javachat.config.ChatConfig;
+import com.javachat.server.ChatServer;
+import com.javachat.transfer.AttachmentTransfer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// Chat latency, file-transfer throughput and reconnect recovery of the headless server under a
+// few typical WAN profiles, all on one machine. Both clients connect through the impairment
+// proxy, so a relayed message crosses the impaired network twice, as between two remote users.
+// The same seed gives the same jitter, late chunks and file contents on every run.
+// Run with: java -cp <classpath> com.javachat.bench.WanBenchmark [fileKiB] [seed]
+public class WanBenchmark {
+    private static final int CHAT_MESSAGES = 50;
+    private static final long CHAT_INTERVAL_MS = 40; // Between chat messages, like a fast typist
+    private static final int RECONNECTS = 5;
+    private static final long PROBE_INTERVAL_MS = 20; // How often a reconnected sender retries
+    private static final String PROBE = "wan-bench:";
+
+    private record Scenario(String name, Impairment impairment) {
+    }
+
+    private static List<Scenario> scenarios(long seed) {
+        return List.of(
+                new Scenario("loopback", new Impairment(0, 0, 0, 0, 0, 0, seed)),
+                new Scenario("broadband", new Impairment(10, 5, 50_000, 0, 0, 0, seed)),
+                new Scenario("cross-continent", new Impairment(45, 5, 20_000, 0.5, 100, 0, seed)),
+                new Scenario("mobile", new Impairment(60, 40, 4_000, 2, 250, 0, seed)));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int fileKiB = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+
+        // Measure the network, not the rate limits
+        for (String scope : new String[]{"connection", "room"}) {
+            System.setProperty("chat.rate." + scope + ".messagesPerSec", "1000000000");
+            System.setProperty("chat.rate." + scope + ".messageBurst", "1000000000000");
+            System.setProperty("chat.rate." + scope + ".bytesPerSec", "1000000000");
+            System.setProperty("chat.rate." + scope + ".byteBurst", "1000000000000");
+        }
+
+        Path dir = Files.createTempDirectory("chat-wan-bench");
+        ChatConfig config = ChatConfig.load(new String[]{
+                "--chat.port=" + freePort(),
+                "--chat.store.dir=" + dir,
+        });
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // The server logs every connection
+        try {
+            ChatServer server = start(config);
+            ImpairmentProxy proxy = new ImpairmentProxy(0, new InetSocketAddress("127.0.0.1", config.port()), Impairment.NONE).start();
+
+            chatLatency(proxy.port()); // Warm-up, not reported
+            fileThroughput(proxy.port(), fileKiB, seed);
+            for (Scenario scenario : scenarios(seed)) {
+                proxy.setImpairment(scenario.impairment());
+                console.println(scenario.name() + " (" + scenario.impairment() + ")");
+                long[] latency = chatLatency(proxy.port());
+                console.printf("  chat latency:       p50 %6.1f ms, p95 %6.1f ms, max %6.1f ms%n",
+                        percentile(latency, 50), percentile(latency, 95), percentile(latency, 100));
+                console.printf("  file transfer:      %8.2f MB/s for %d KiB%n", fileThroughput(proxy.port(), fileKiB, seed), fileKiB);
+                long[] recovery = reconnectRecovery(proxy);
+                console.printf("  reconnect recovery: p50 %6.1f ms, max %6.1f ms%n", percentile(recovery, 50), percentile(recovery, 100));
+            }
+
+            proxy.close();
+            server.stop();
+        } finally {
+            System.setOut(console);
+        }
+    }
+
+    // Relay time of chat messages sent at typing pace from one client to another (ns each)
+    private static long[] chatLatency(int port) throws Exception {
+        try (Socket receiver = connect(port); Socket sender = connect(port)) {
+            Thread.sleep(200); // Both must be registered before the first message is relayed
+            CompletableFuture<long[]> received = CompletableFuture.supplyAsync(() -> {
+                long[] latencies = new long[CHAT_MESSAGES];
+                try {
+                    BufferedReader in = reader(receiver);
+                    int count = 0;
+                    String line;
+                    while (count < CHAT_MESSAGES && (line = in.readLine()) != null) {
+                        if (!line.startsWith(PROBE)) continue;
+                        long sentAt = Long.parseLong(line.substring(line.lastIndexOf(':') + 1));
+                        latencies[count++] = System.nanoTime() - sentAt;
+                    }
+                    return Arrays.copyOf(latencies, count);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            PrintWriter out = writer(sender);
+            for (int i = 0; i < CHAT_MESSAGES; i++) {
+                out.println(PROBE + i + ":" + System.nanoTime());
+                out.flush();
+                Thread.sleep(CHAT_INTERVAL_MS);
+            }
+            return received.get(60, TimeUnit.SECONDS);
+        }
+    }
+
+    // Sends one file as a BLOB line, as AttachmentTransfer does after a WANT; returns MB/s of file bytes
+    private static double fileThroughput(int port, int kib, long seed) throws Exception {
+        byte[] file = new byte[kib * 1024];
+        new Random(seed).nextBytes(file);
+        String line = AttachmentTransfer.BLOB + "bench:application/octet-stream:" + Base64.getEncoder().encodeToString(file);
+        try (Socket receiver = connect(port); Socket sender = connect(port)) {
+            Thread.sleep(200);
+            CompletableFuture<Long> received = CompletableFuture.supplyAsync(() -> {
+                try {
+                    BufferedReader in = reader(receiver);
+                    String text;
+                    while ((text = in.readLine()) != null) {
+                        if (text.startsWith(AttachmentTransfer.BLOB)) return System.nanoTime();
+                    }
+                    throw new IOException("Connection closed before the file arrived");
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            long start = System.nanoTime();
+            PrintWriter out = writer(sender);
+            out.println(line);
+            out.flush();
+            long end = received.get(10, TimeUnit.MINUTES);
+            return file.length / (1024.0 * 1024) / ((end - start) / 1e9);
+        }
+    }
+
+    // Time from the proxy resetting every connection until both clients have noticed, reconnected
+    // and a message from one reaches the other again (ns each)
+    private static long[] reconnectRecovery(ImpairmentProxy proxy) throws Exception {
+        long[] recovery = new long[RECONNECTS];
+        for (int i = 0; i < RECONNECTS; i++) {
+            Socket receiver = connect(proxy.port());
+            Socket sender = connect(proxy.port());
+            Thread.sleep(200);
+            long start = System.nanoTime();
+            proxy.disconnectAll();
+            receiver = reconnect(receiver, proxy.port());
+            sender = reconnect(sender, proxy.port());
+            try (Socket r = receiver; Socket s = sender) {
+                CompletableFuture<Long> arrived = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        BufferedReader in = reader(r);
+                        String line;
+                        while ((line = in.readLine()) != null) {
+                            if (line.startsWith(PROBE)) return System.nanoTime();
+                        }
+                        throw new IOException("Connection closed before a message arrived");
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+                // The receiver may not be registered yet, and the server does not replay, so keep trying
+                PrintWriter out = writer(s);
+                while (!arrived.isDone()) {
+                    out.println(PROBE + "reconnect");
+                    out.flush();
+                    Thread.sleep(PROBE_INTERVAL_MS);
+                }
+                recovery[i] = arrived.get() - start;
+            }
+        }
+        return recovery;
+    }
+
+    // Waits until the client sees its connection die, then connects again as a reconnecting client would
+    private static Socket reconnect(Socket socket, int port) throws IOException {
+        try {
+            while (socket.getInputStream().read() >= 0) {
+                // Drain what was relayed before the reset
+            }
+        } catch (IOException e) {
+            // Reset by the proxy
+        }
+        socket.close();
+        return connect(port);
+    }
+
+    private static double percentile(long[] nanos, int percentile) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        int index = Math.max(0, (int) Math.ceil(percentile / 100.0 * sorted.length) - 1);
+        return sorted[index] / 1e6;
+    }
+
+    private static Socket connect(int port) throws IOException {
+        Socket socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress("127.0.0.1", port));
+        return socket;
+    }
+
+    private static BufferedReader reader(Socket socket) throws IOException {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    private static PrintWriter writer(Socket socket) throws IOException {
+        return new PrintWriter(socket.getOutputStream(), false, StandardCharsets.UTF_8);
+    }
+
+    private static ChatServer start(ChatConfig config) throws Exception {
+        ChatServer server = new ChatServer(config);
+        Thread thread = new Thread(() -> {
+            try {
+                server.start();
+            } catch (IOException e) {
+                System.err.println("Benchmark server failed: " + e.getMessage());
+            }
+        }, "bench-server-" + config.port());
+        thread.setDaemon(true);
+        thread.start();
+        for (int attempt = 0; attempt < 100; attempt++) { // Wait until it accepts connections
+            try {
+                new Socket("127.0.0.1", config.port()).close();
+                return server;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IOException("Server on port " + config.port() + " did not start");
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.javachat.config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+// Startup configuration for Server and Client.
+// Values are looked up in this order, later sources winning:
+//   1. built-in defaults
+//   2. a properties file (-Dchat.config, CHAT_CONFIG, or ./chat.properties if present)
+//   3. environment variables (chat.bind.address -> CHAT_BIND_ADDRESS)
+//   4. system properties (-Dchat.bind.address=...)
+//   5. command line arguments (--chat.bind.address=...)
+public class ChatConfig {
+    // Keys
+    public static final String BIND_ADDRESS = "chat.bind.address";
+    public static final String PORT = "chat.port";
+    public static final String HOST = "chat.host";
+    public static final String HEADLESS = "chat.headless";
+    public static final String ROOM = "chat.room";
+    public static final String IO_THREADS = "chat.io.threads";
+    public static final String WORKER_THREADS = "chat.worker.threads";
+    public static final String SEND_BUFFER = "chat.socket.sendBuffer";
+    public static final String RECEIVE_BUFFER = "chat.socket.receiveBuffer";
+    public static final String TCP_NODELAY = "chat.socket.tcpNoDelay";
+    public static final String STORE_DIR = "chat.store.dir";
+    public static final String DOWNLOAD_DIR = "chat.download.dir";
+    public static final String ATTACHMENT_DIR = "chat.attachment.dir";
+    public static final String THUMBNAIL_DIR = "chat.thumbnail.dir";
+    public static final String THUMBNAIL_CACHE_BYTES = "chat.thumbnail.cacheBytes";
+    public static final String ARCHIVE_DIR = "chat.archive.dir";
+    public static final String STARTUP_TRAINING = "chat.startup.training";
+
+    // Database file names inside the store directory
+    public static final String SERVER_DB = "server_chat.db";
+    public static final String CLIENT_DB = "client_chat.db";
+
+    private static final String DEFAULT_CONFIG_FILE = "chat.properties";
+
+    private final Properties values;    // Defaults and the config file
+    private final Properties env;       // CHAT_* environment variables, keyed lowercase and dotted
+    private final Properties overrides; // -D system properties and --key=value arguments
+
+    private ChatConfig(Properties values, Properties env, Properties overrides) {
+        this.values = values;
+        this.env = env;
+        this.overrides = overrides;
+    }
+
+    // Loads the configuration from all sources; args may contain --key=value overrides
+    public static ChatConfig load(String[] args) {
+        return load(args, System.getenv());
+    }
+
+    static ChatConfig load(String[] args, Map<String, String> environment) {
+        Properties values = defaults();
+        loadFile(values);
+        // Environment names lose the case of camel-case keys (CHAT_SOCKET_TCPNODELAY), so they are
+        // kept lowercase and matched case-insensitively when a key is looked up
+        Properties env = new Properties();
+        for (Map.Entry<String, String> variable : environment.entrySet()) {
+            String key = variable.getKey().toLowerCase(Locale.ROOT);
+            if (key.startsWith("chat_") && !key.equals("chat_config")) env.setProperty(key.replace('_', '.'), variable.getValue());
+        }
+        Properties overrides = new Properties();
+        for (String key : System.getProperties().stringPropertyNames()) {
+            if (key.startsWith("chat.")) overrides.setProperty(key, System.getProperty(key));
+        }
+        for (String arg : args) {
+            if (!arg.startsWith("--")) continue;
+            int eq = arg.indexOf('=');
+            if (eq < 0) overrides.setProperty(arg.substring(2), "true"); // e.g. --chat.headless
+            else overrides.setProperty(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        return new ChatConfig(values, env, overrides);
+    }
+
+    // The value from the highest layer that has one: arguments and -D, environment, file, defaults
+    private String lookup(String key) {
+        String value = overrides.getProperty(key);
+        if (value == null) value = env.getProperty(key.toLowerCase(Locale.ROOT));
+        if (value == null) value = values.getProperty(key);
+        return value;
+    }
+
+    private static Properties defaults() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        Properties defaults = new Properties();
+        defaults.setProperty(BIND_ADDRESS, "0.0.0.0");
+        defaults.setProperty(PORT, "2103");
+        defaults.setProperty(HEADLESS, "false");
+        defaults.setProperty(IO_THREADS, String.valueOf(Math.max(1, cores / 4)));
+        defaults.setProperty(WORKER_THREADS, String.valueOf(cores));
+        defaults.setProperty(SEND_BUFFER, "0");      // 0 keeps the OS default
+        defaults.setProperty(RECEIVE_BUFFER, "0");
+        defaults.setProperty(TCP_NODELAY, "true");   // Chat lines are small, do not wait for Nagle
+        defaults.setProperty(STORE_DIR, "src/main/resources");
+        return defaults;
+    }
+
+    private static void loadFile(Properties values) {
+        String location = System.getProperty("chat.config", System.getenv("CHAT_CONFIG"));
+        Path path = Paths.get(location != null ? location : DEFAULT_CONFIG_FILE);
+        if (!Files.isRegularFile(path)) {
+            if (location != null) System.err.println("Config file not found: " + path);
+            return;
+        }
+        try (InputStream in = Files.newInputStream(path)) {
+            values.load(in);
+            System.out.println("Loaded configuration from " + path.toAbsolutePath());
+        } catch (IOException e) {
+            System.err.println("Error reading config file " + path + ": " + e.getMessage());
+        }
+    }
+
+    // Generic accessors, for settings owned by other subsystems
+
+    public String getString(String key, String defaultValue) {
+        String value = lookup(key);
+        return value == null ? defaultValue : value;
+    }
+
+    public int getInt(String key, int defaultValue) {
+        String value = lookup(key);
+        if (value == null || value.isBlank()) return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number for " + key + ": " + value);
+        }
+    }
+
+    public long getLong(String key, long defaultValue) {
+        String value = lookup(key);
+        if (value == null || value.isBlank()) return defaultValue;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number for " + key + ": " + value);
+        }
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        String value = lookup(key);
+        return value == null || value.isBlank() ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+
+    // Typed accessors for the bootstrap settings
+
+    public InetAddress bindAddress() throws UnknownHostException {
+        return InetAddress.getByName(getString(BIND_ADDRESS, "0.0.0.0"));
+    }
+
+    public int port() {
+        return getInt(PORT, 2103);
+    }
+
+    // Server the client connects to; defaults to this machine like before
+    public InetAddress host() throws UnknownHostException {
+        String host = getString(HOST, null);
+        return host == null ? InetAddress.getLocalHost() : InetAddress.getByName(host);
+    }
+
+    // The server's name as configured, which is what its TLS certificate must name
+    public String hostName() throws UnknownHostException {
+        String host = getString(HOST, null);
+        return host == null ? InetAddress.getLocalHost().getHostName() : host.trim();
+    }
+
+    // Room the client joins on a relay server; a 1:1 server ignores it
+    public String room() {
+        return getString(ROOM, "default").trim();
+    }
+
+    public boolean headless() {
+        return getBoolean(HEADLESS, false);
+    }
+
+    // Class-data sharing training run: start up without connecting, then exit
+    public boolean startupTraining() {
+        return getBoolean(STARTUP_TRAINING, false);
+    }
+
+    public int ioThreads() {
+        return Math.max(1, getInt(IO_THREADS, 1));
+    }
+
+    public int workerThreads() {
+        return Math.max(1, getInt(WORKER_THREADS, 1));
+    }
+
+    public Path storeDir() {
+        return Paths.get(getString(STORE_DIR, "."));
+    }
+
+    // Spool directory for received files; defaults to "spool" inside the store directory
+    public Path downloadDir() {
+        String dir = getString(DOWNLOAD_DIR, null);
+        return dir == null ? storeDir().resolve("spool") : Paths.get(dir);
+    }
+
+    // Content-addressed attachment store; defaults to "attachments" inside the store directory
+    public Path attachmentDir() {
+        String dir = getString(ATTACHMENT_DIR, null);
+        return dir == null ? storeDir().resolve("attachments") : Paths.get(dir);
+    }
+
+    // Disk cache of image previews; defaults to "thumbnails" inside the store directory
+    public Path thumbnailDir() {
+        String dir = getString(THUMBNAIL_DIR, null);
+        return dir == null ? storeDir().resolve("thumbnails") : Paths.get(dir);
+    }
+
+    // Compressed archive of messages removed by retention; defaults to "archive" inside the store directory
+    public Path archiveDir() {
+        String dir = getString(ARCHIVE_DIR, null);
+        return dir == null ? storeDir().resolve("archive") : Paths.get(dir);
+    }
+
+    // Memory budget of the preview cache in bytes of pixels
+    public long thumbnailCacheBytes() {
+        return getLong(THUMBNAIL_CACHE_BYTES, 32L << 20);
+    }
+
+    // JDBC URL of a database file in the store directory, creating the directory if needed
+    public String dbUrl(String fileName) {
+        Path dir = storeDir();
+        try {
+            Files.createDirectories(dir);
+        } catch (IOException e) {
+            System.err.println("Error creating store directory " + dir + ": " + e.getMessage());
+        }
+        return "jdbc:sqlite:" + dir.resolve(fileName);
+    }
+
+    // Applies TCP_NODELAY and buffer sizes to a socket; call before connecting for the buffers to matter.
+    // An accepted socket inherits its receive buffer from the listening socket, see applyListenOptions.
+    public void applySocketOptions(Socket socket) throws SocketException {
+        socket.setTcpNoDelay(getBoolean(TCP_NODELAY, true));
+        int sendBuffer = getInt(SEND_BUFFER, 0);
+        if (sendBuffer > 0) socket.setSendBufferSize(sendBuffer);
+        int receiveBuffer = getInt(RECEIVE_BUFFER, 0);
+        if (receiveBuffer > 0) socket.setReceiveBufferSize(receiveBuffer);
+    }
+
+    // Applies the receive buffer to a listening socket; call before bind, because a buffer above
+    // 64 KiB needs TCP window scaling, which is negotiated in the handshake of each accepted connection
+    public void applyListenOptions(ServerSocket socket) throws SocketException {
+        int receiveBuffer = getInt(RECEIVE_BUFFER, 0);
+        if (receiveBuffer > 0) socket.setReceiveBufferSize(receiveBuffer);
+    }
+
+    @Override
+    public String toString() {
+        TreeMap<Object, Object> all = new TreeMap<>(values);
+        all.putAll(env);
+        all.putAll(overrides);
+        return "ChatConfig" + all;
+    }
+}
@@ -0,0 +1,126 @@
+package com.javachat.emoji;
+
+import com.vdurmont.emoji.Emoji;
+import com.vdurmont.emoji.EmojiManager;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+// Expands emoji shortcodes such as ":fire:" or ":heart_eyes:" to their unicode form.
+// The alias trie is built once from EmojiManager.getAll() and every message is then
+// expanded in a single left-to-right pass without regexes. Messages that contain no
+// shortcode are returned as-is, so the common case allocates nothing.
+public final class EmojiExpander {
+    private static final int NO_CHILD = 0; // Node 0 is the root, so it can never be a child
+
+    private final byte[] charIndex = new byte[128]; // ASCII char -> column in the child table, -1 if unused
+    private final int alphabetSize;                 // Number of distinct characters used by aliases
+    private final int[] children;                   // Flat child table: children[node * alphabetSize + column]
+    private final String[] unicode;                 // Unicode replacement for nodes that end an alias
+    private final int maxAliasLength;               // Longest alias, bounds how far a match can scan
+
+    // Lazily built shared instance; the holder keeps the emoji database off the startup path
+    private static final class Holder {
+        static final EmojiExpander INSTANCE = new EmojiExpander(EmojiManager.getAll());
+    }
+
+    // Returns the shared expander built from the full emoji-java database
+    public static EmojiExpander getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    // Convenience method: expand shortcodes using the shared instance
+    public static String expand(String text) {
+        return getInstance().expandAliases(text);
+    }
+
+    public EmojiExpander(Collection<Emoji> emojis) {
+        // First pass: collect the alphabet and count the nodes we need at most
+        Arrays.fill(charIndex, (byte) -1);
+        int columns = 0;
+        int maxNodes = 1;
+        int longest = 0;
+        for (Emoji emoji : emojis) {
+            for (String alias : emoji.getAliases()) {
+                if (!isIndexable(alias)) continue;
+                for (int i = 0; i < alias.length(); i++) {
+                    char c = alias.charAt(i);
+                    if (charIndex[c] < 0) charIndex[c] = (byte) columns++;
+                }
+                maxNodes += alias.length();
+                longest = Math.max(longest, alias.length());
+            }
+        }
+        alphabetSize = Math.max(columns, 1);
+        maxAliasLength = longest;
+
+        // Second pass: insert every alias into the flat trie
+        int[] table = new int[maxNodes * alphabetSize];
+        String[] values = new String[maxNodes];
+        int nodeCount = 1;
+        for (Emoji emoji : emojis) {
+            for (String alias : emoji.getAliases()) {
+                if (!isIndexable(alias)) continue;
+                int node = 0;
+                for (int i = 0; i < alias.length(); i++) {
+                    int slot = node * alphabetSize + charIndex[alias.charAt(i)];
+                    if (table[slot] == NO_CHILD) table[slot] = nodeCount++;
+                    node = table[slot];
+                }
+                values[node] = emoji.getUnicode(); // A repeated alias keeps the last emoji, like EmojiManager
+            }
+        }
+
+        // Trim the tables to the nodes actually used
+        children = Arrays.copyOf(table, nodeCount * alphabetSize);
+        unicode = Arrays.copyOf(values, nodeCount);
+    }
+
+    // Aliases must be non-empty printable ASCII without ':' to fit the trie
+    private static boolean isIndexable(String alias) {
+        if (alias == null || alias.isEmpty()) return false;
+        for (int i = 0; i < alias.length(); i++) {
+            char c = alias.charAt(i);
+            if (c <= ' ' || c >= 127 || c == ':') return false;
+        }
+        return true;
+    }
+
+    // Replaces every ":alias:" with its unicode emoji in a single pass over the text
+    public String expandAliases(String text) {
+        if (text == null) return null;
+        int length = text.length();
+        StringBuilder result = null; // Only allocated once the first shortcode is found
+        int copied = 0;              // Index up to which text has been copied into result
+        int i = text.indexOf(':');
+        while (i >= 0 && i < length - 2) {
+            long found = match(text, i + 1, length);
+            if (found >= 0) {
+                int end = (int) (found >>> 32);
+                if (result == null) result = new StringBuilder(length);
+                result.append(text, copied, i).append(unicode[(int) found]);
+                copied = end + 1;
+                i = text.indexOf(':', copied);
+            } else {
+                i = text.indexOf(':', i + 1); // The closing ':' may open the next shortcode
+            }
+        }
+        if (result == null) return text;
+        return result.append(text, copied, length).toString();
+    }
+
+    // Walks the trie from start; on a match returns the closing ':' index in the high 32 bits
+    // and the terminal node in the low 32 bits, otherwise -1
+    private long match(String text, int start, int length) {
+        int node = 0;
+        int limit = Math.min(length, start + maxAliasLength + 1);
+        for (int j = start; j < limit; j++) {
+            char c = text.charAt(j);
+            if (c == ':') return (j > start && unicode[node] != null) ? ((long) j << 32) | node : -1;
+            if (c >= 128 || charIndex[c] < 0) return -1;
+            node = children[node * alphabetSize + charIndex[c]];
+            if (node == NO_CHILD) return -1;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,80 @@
+package com.javachat.gui;
+
+import com.javachat.transfer.Download;
+import com.javachat.transfer.DownloadManager;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.File;
+
+// Non-modal window listing received files, with actions to rename them or save a copy elsewhere
+public class DownloadsPanel extends JDialog {
+    private final DownloadManager manager;
+    private final DefaultListModel<Download> model = new DefaultListModel<>();
+    private final JList<Download> list = new JList<>(model);
+
+    public DownloadsPanel(Frame owner, DownloadManager manager) {
+        super(owner, "Downloads", false); // Non-modal so chatting continues while it is open
+        this.manager = manager;
+        setSize(450, 300);
+        setLocationRelativeTo(owner);
+        setDefaultCloseOperation(JDialog.HIDE_ON_CLOSE);
+
+        list.setFont(Constants.font2.deriveFont(14f));
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        add(new JScrollPane(list), BorderLayout.CENTER);
+
+        JButton renameButton = new JButton("Rename...");
+        renameButton.addActionListener(e -> renameSelected());
+        JButton saveAsButton = new JButton("Save As...");
+        saveAsButton.addActionListener(e -> saveSelectedAs());
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttons.add(renameButton);
+        buttons.add(saveAsButton);
+        add(buttons, BorderLayout.SOUTH);
+
+        manager.downloads().forEach(model::addElement);
+        manager.addListener(download -> SwingUtilities.invokeLater(() -> refresh(download)));
+    }
+
+    // Adds a new download or repaints an existing one
+    private void refresh(Download download) {
+        int index = model.indexOf(download);
+        if (index < 0) model.addElement(download);
+        else model.set(index, download);
+    }
+
+    private Download selectedFinished() {
+        Download download = list.getSelectedValue();
+        if (download == null || download.status() != Download.Status.DONE) {
+            JOptionPane.showMessageDialog(this, "Select a finished download first");
+            return null;
+        }
+        return download;
+    }
+
+    private void renameSelected() {
+        Download download = selectedFinished();
+        if (download == null) return;
+        String name = JOptionPane.showInputDialog(this, "New file name:", download.name());
+        if (name == null || name.isBlank()) return;
+        manager.rename(download, name.trim());
+    }
+
+    private void saveSelectedAs() {
+        Download download = selectedFinished();
+        if (download == null) return;
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setCurrentDirectory(new File(System.getProperty("user.home")));
+        fileChooser.setSelectedFile(new File(download.name()));
+        if (fileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
+            manager.exportTo(download, fileChooser.getSelectedFile().toPath()).exceptionally(e -> showError(e));
+        }
+    }
+
+    private Void showError(Throwable e) {
+        Throwable cause = e.getCause() != null ? e.getCause() : e;
+        SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, cause.getMessage(), "Error", JOptionPane.ERROR_MESSAGE));
+        return null;
+    }
+}
@@ -0,0 +1,126 @@
+package com.javachat.gui;
+
+import com.javachat.media.ThumbnailService;
+
+import javax.swing.*;
+import java.awt.*;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+// Horizontal strip of image previews shown above the input field.
+// Cells paint a placeholder until their thumbnail is ready; thumbnails are only requested
+// for cells that are actually painted, so scrolling never decodes anything on the EDT.
+// An image that cannot be decoded gets a crossed-out box and is tried again when it is added again.
+public class MediaStrip extends JScrollPane {
+    // One image in the strip: its content digest, where the file is, and a caption
+    public record Item(String digest, Path file, String caption) {}
+
+    private static final int PADDING = 8;
+
+    private final ThumbnailService thumbnails;
+    private final int size;
+    private final DefaultListModel<Item> model = new DefaultListModel<>();
+    private final JList<Item> list = new JList<>(model);
+    private final Set<String> requested = new HashSet<>(); // Thumbnails being built, EDT only
+    private final Set<String> failed = new HashSet<>();    // Thumbnails that could not be built, EDT only
+    private final Icon placeholder;
+    private final Icon failedIcon;
+
+    public MediaStrip(ThumbnailService thumbnails, int size) {
+        this.thumbnails = thumbnails;
+        this.size = size;
+        this.placeholder = new PlaceholderIcon(size, false);
+        this.failedIcon = new PlaceholderIcon(size, true);
+
+        list.setLayoutOrientation(JList.HORIZONTAL_WRAP);
+        list.setVisibleRowCount(1);
+        list.setFixedCellWidth(size + 2 * PADDING);   // Fixed cells: layout never has to measure images
+        list.setFixedCellHeight(size + 2 * PADDING + 20);
+        list.setCellRenderer(new ThumbnailRenderer());
+        setViewportView(list);
+        setHorizontalScrollBarPolicy(HORIZONTAL_SCROLLBAR_AS_NEEDED);
+        setVerticalScrollBarPolicy(VERTICAL_SCROLLBAR_NEVER);
+        setVisible(false); // Shown with the first image
+    }
+
+    // Adds an image; call on the EDT
+    public void add(Item item) {
+        failed.remove(item.digest()); // The file may be complete or readable now
+        model.addElement(item);
+        if (!isVisible()) {
+            setVisible(true);
+            getParent().revalidate();
+        }
+        list.ensureIndexIsVisible(model.size() - 1);
+    }
+
+    // Removes all images and hides the strip; call on the EDT
+    public void clear() {
+        model.clear();
+        failed.clear();
+        setVisible(false);
+        if (getParent() != null) getParent().revalidate();
+    }
+
+    private Icon iconFor(Item item) {
+        Icon icon = thumbnails.iconIfReady(item.digest()); // Built once with the thumbnail, evicted with it
+        if (icon != null) return icon;
+        if (failed.contains(item.digest())) return failedIcon;
+        if (requested.add(item.digest())) {
+            thumbnails.request(item.digest(), item.file(), ready -> SwingUtilities.invokeLater(() -> {
+                requested.remove(item.digest()); // Allow a rebuild should the cache ever drop it
+                if (ready == null) failed.add(item.digest()); // Not retried on every repaint
+                list.repaint();
+            }));
+        }
+        return placeholder;
+    }
+
+    private final class ThumbnailRenderer extends DefaultListCellRenderer {
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+            Item item = (Item) value;
+            JLabel label = (JLabel) super.getListCellRendererComponent(list, item.caption(), index, isSelected, cellHasFocus);
+            label.setIcon(iconFor(item));
+            label.setHorizontalAlignment(SwingConstants.CENTER);
+            label.setHorizontalTextPosition(SwingConstants.CENTER);
+            label.setVerticalTextPosition(SwingConstants.BOTTOM);
+            label.setToolTipText(item.file().toString());
+            return label;
+        }
+    }
+
+    // Grey box painted while a thumbnail is still being built, crossed out if it failed
+    private static final class PlaceholderIcon implements Icon {
+        private final int size;
+        private final boolean failed;
+
+        PlaceholderIcon(int size, boolean failed) {
+            this.size = size;
+            this.failed = failed;
+        }
+
+        @Override
+        public void paintIcon(Component c, Graphics g, int x, int y) {
+            g.setColor(Color.LIGHT_GRAY);
+            g.fillRect(x, y, size, size);
+            g.setColor(Color.GRAY);
+            g.drawRect(x, y, size - 1, size - 1);
+            if (failed) {
+                g.drawLine(x, y, x + size - 1, y + size - 1);
+                g.drawLine(x, y + size - 1, x + size - 1, y);
+            }
+        }
+
+        @Override
+        public int getIconWidth() {
+            return size;
+        }
+
+        @Override
+        public int getIconHeight() {
+            return size;
+        }
+    }
+}
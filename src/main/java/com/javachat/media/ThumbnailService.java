@@ -0,0 +1,183 @@
+package com.javachat.media;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.Icon;
+import javax.swing.ImageIcon;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// Builds image thumbnails off the EDT.
+// Full-size images are read with ImageIO source subsampling, so a 24 MP photo is decoded
+// at roughly the thumbnail resolution instead of in full, then scaled to size. Thumbnails
+// are kept in a memory cache bounded by pixel bytes (LRU, soft references so the GC can
+// still reclaim them) and written to a disk cache, so they are cheap to get back later.
+// Each cached thumbnail comes with its icon, so painting never allocates and an evicted
+// thumbnail is not kept alive by the UI.
+public class ThumbnailService {
+    private final int size;          // Longest edge of a thumbnail in pixels
+    private final long maxCacheBytes;
+    private final Path diskCache;
+    private final ExecutorService pool;
+    private final Map<String, CompletableFuture<BufferedImage>> inFlight = new ConcurrentHashMap<>();
+    private final LinkedHashMap<String, CacheEntry> cache = new LinkedHashMap<>(64, 0.75f, true); // Access order
+    private long cacheBytes;         // Guarded by cache
+
+    public ThumbnailService(Path diskCache, int size, long maxCacheBytes) {
+        this.diskCache = diskCache;
+        this.size = size;
+        this.maxCacheBytes = maxCacheBytes;
+        AtomicInteger id = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), r -> {
+            Thread t = new Thread(r, "chat-thumbnail-" + id.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY); // Previews must never compete with the UI or the network
+            return t;
+        });
+    }
+
+    // Returns the cached thumbnail, or null if it still has to be built
+    public BufferedImage getIfReady(String key) {
+        ImageIcon icon = cachedIcon(key);
+        return icon == null ? null : (BufferedImage) icon.getImage();
+    }
+
+    // Returns the icon of the cached thumbnail, or null if it still has to be built
+    public Icon iconIfReady(String key) {
+        return cachedIcon(key);
+    }
+
+    private ImageIcon cachedIcon(String key) {
+        synchronized (cache) {
+            CacheEntry entry = cache.get(key);
+            if (entry == null) return null;
+            ImageIcon icon = entry.icon.get();
+            if (icon == null) { // Reclaimed by the GC under memory pressure
+                cache.remove(key);
+                cacheBytes -= entry.bytes;
+            }
+            return icon;
+        }
+    }
+
+    // Builds the thumbnail of source in the background; onReady runs on a pool thread with the thumbnail,
+    // or with null if decoding failed. Concurrent requests for the same key share one decode.
+    public void request(String key, Path source, Consumer<BufferedImage> onReady) {
+        BufferedImage cached = getIfReady(key);
+        if (cached != null) {
+            onReady.accept(cached);
+            return;
+        }
+        CompletableFuture<BufferedImage> created = new CompletableFuture<>();
+        CompletableFuture<BufferedImage> shared = inFlight.putIfAbsent(key, created);
+        if (shared == null) { // Started outside the map, so completing it may remove the entry again
+            shared = created;
+            created.whenComplete((image, error) -> inFlight.remove(key, created));
+            CompletableFuture.supplyAsync(() -> load(key, source), pool).whenComplete((image, error) -> {
+                if (error != null) created.completeExceptionally(error); else created.complete(image);
+            });
+        }
+        shared.whenComplete((image, error) -> onReady.accept(error == null ? image : null));
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private BufferedImage load(String key, Path source) {
+        Path cachedFile = diskCache.resolve(key + "-" + size + ".png");
+        try {
+            BufferedImage thumbnail = Files.isRegularFile(cachedFile) ? ImageIO.read(cachedFile.toFile()) : null;
+            if (thumbnail == null) {
+                thumbnail = decodeThumbnail(source);
+                if (thumbnail == null) return null; // Not an image ImageIO understands
+                Files.createDirectories(diskCache);
+                ImageIO.write(thumbnail, "png", cachedFile.toFile());
+            }
+            remember(key, thumbnail);
+            return thumbnail;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error creating thumbnail for " + source + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Decodes only every n-th pixel in each direction, then scales the result to fit the thumbnail size
+    private BufferedImage decodeThumbnail(Path source) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(source.toFile())) {
+            if (in == null) return null;
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) return null;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);   // Read from the header, no pixel data yet
+                int height = reader.getHeight(0);
+                int step = Math.max(1, Math.min(width, height) / (size * 2)); // Keep 2x headroom for a smooth downscale
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return scale(reader.read(0, param));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private BufferedImage scale(BufferedImage image) {
+        double ratio = Math.min(1.0, (double) size / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * ratio));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * ratio));
+        BufferedImage thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = thumbnail.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return thumbnail;
+    }
+
+    private void remember(String key, BufferedImage thumbnail) {
+        CacheEntry entry = new CacheEntry(thumbnail);
+        synchronized (cache) {
+            CacheEntry previous = cache.put(key, entry);
+            cacheBytes += entry.bytes - (previous != null ? previous.bytes : 0);
+            // Evict least recently used entries until we are under budget
+            Iterator<Map.Entry<String, CacheEntry>> it = cache.entrySet().iterator();
+            while (cacheBytes > maxCacheBytes && it.hasNext()) {
+                Map.Entry<String, CacheEntry> eldest = it.next();
+                if (eldest.getKey().equals(key)) continue;
+                cacheBytes -= eldest.getValue().bytes;
+                it.remove();
+            }
+        }
+    }
+
+    // Soft reference to the thumbnail's icon plus the pixel bytes it was accounted with
+    private static final class CacheEntry {
+        final SoftReference<ImageIcon> icon; // The icon holds the only strong reference to the image
+        final long bytes;
+
+        CacheEntry(BufferedImage image) {
+            this.icon = new SoftReference<>(new ImageIcon(image));
+            this.bytes = (long) image.getWidth() * image.getHeight() * 4;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.javachat.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Process-wide named counters.
+// Look a counter up once and keep the LongAdder in a field: increments are striped
+// across cells, so hot paths on many threads neither contend nor allocate.
+public final class Metrics {
+    private static final ConcurrentHashMap<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+
+    private Metrics() {}
+
+    // Returns the counter with the given name, creating it on first use
+    public static LongAdder counter(String name) {
+        return COUNTERS.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    // Current values, sorted by name
+    public static Map<String, Long> snapshot() {
+        Map<String, Long> values = new TreeMap<>();
+        COUNTERS.forEach((name, counter) -> values.put(name, counter.sum()));
+        return values;
+    }
+
+    // One "name = value" line per counter, for logging
+    public static String report() {
+        StringBuilder sb = new StringBuilder("Metrics:");
+        snapshot().forEach((name, value) -> sb.append("\n  ").append(name).append(" = ").append(value));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,23 @@
+package com.javachat.metrics;
+
+import java.time.Instant;
+
+// Measures startup phases from JVM launch, e.g. when the window first accepts input.
+// Each phase is printed once and kept as a startup.<phase>.millis counter for Metrics.report().
+public final class StartupTimer {
+    // Process start as seen by the OS, so JVM boot and class loading are included
+    private static final long LAUNCHED_AT = ProcessHandle.current().info().startInstant()
+            .map(Instant::toEpochMilli)
+            .orElse(System.currentTimeMillis());
+
+    private StartupTimer() {
+    }
+
+    // Records that a phase has been reached; returns the milliseconds since launch
+    public static long mark(String phase) {
+        long millis = System.currentTimeMillis() - LAUNCHED_AT;
+        Metrics.counter("startup." + phase + ".millis").add(millis);
+        System.out.println("Startup: " + phase + " after " + millis + " ms");
+        return millis;
+    }
+}
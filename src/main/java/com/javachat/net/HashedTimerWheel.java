@@ -0,0 +1,145 @@
+package com.javachat.net;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// A hashed timer wheel: a ring of buckets ticked by a single thread.
+// Scheduling and cancelling are O(1) and a tick only touches one bucket, so thousands of
+// connection or presence timeouts cost one thread and a small, fixed amount of CPU,
+// instead of one ScheduledExecutorService task each. Precision is one tick, which is
+// plenty for idle detection and presence expiry.
+public final class HashedTimerWheel {
+    private final long tickNanos;                  // Duration of one tick
+    private final Bucket[] wheel;                  // Ring of buckets, size is a power of two
+    private final int mask;                        // wheel.length - 1, for cheap modulo
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>(); // Newly scheduled timeouts
+    private final Thread worker;
+    private final long startNanos;
+    private volatile boolean running = true;
+    private long tick;                             // Current tick, only touched by the worker
+
+    // Shared wheel used by all connections and the presence registry
+    private static final class Shared {
+        static final HashedTimerWheel INSTANCE = new HashedTimerWheel("chat-timer-wheel", 100, TimeUnit.MILLISECONDS, 512);
+    }
+
+    public static HashedTimerWheel shared() {
+        return Shared.INSTANCE;
+    }
+
+    public HashedTimerWheel(String name, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        if (tickDuration <= 0) throw new IllegalArgumentException("tickDuration must be positive");
+        if (ticksPerWheel <= 0) throw new IllegalArgumentException("ticksPerWheel must be positive");
+        int size = 1;
+        while (size < ticksPerWheel) size <<= 1; // Round up to a power of two
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) wheel[i] = new Bucket();
+        this.mask = size - 1;
+        this.startNanos = System.nanoTime();
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true); // Never keep the JVM alive just for timers
+        this.worker.start();
+    }
+
+    // Schedules a task to run once after the given delay; the task runs on the wheel thread and must be short
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (!running) throw new IllegalStateException("Timer wheel stopped");
+        Timeout timeout = new Timeout(task, System.nanoTime() - startNanos + Math.max(0, unit.toNanos(delay)));
+        pending.add(timeout);
+        return timeout;
+    }
+
+    // Stops the wheel thread; outstanding timeouts are dropped
+    public void stop() {
+        running = false;
+        worker.interrupt();
+    }
+
+    private void run() {
+        while (running) {
+            // Sleep until the start of the next tick
+            long deadline = (tick + 1) * tickNanos;
+            long sleep;
+            while (running && (sleep = deadline - (System.nanoTime() - startNanos)) > 0) {
+                LockSupport.parkNanos(this, sleep);
+            }
+            transferPending();
+            wheel[(int) (tick & mask)].expire(tick);
+            tick++;
+        }
+    }
+
+    // Moves newly scheduled timeouts into their bucket
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.cancelled) continue;
+            long ticks = Math.max(timeout.deadlineNanos / tickNanos, tick); // Overdue timeouts fire in the current tick
+            timeout.expireTick = ticks;
+            wheel[(int) (ticks & mask)].add(timeout);
+        }
+    }
+
+    // Handle for a scheduled task
+    public static final class Timeout {
+        private final Runnable task;
+        private final long deadlineNanos;  // Relative to the wheel start
+        private long expireTick;           // Absolute tick, set by the worker
+        private volatile boolean cancelled;
+        private Timeout prev, next;        // Bucket links, only touched by the worker
+
+        private Timeout(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        // Cancels the task; it is unlinked lazily when its bucket is next visited
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    // Doubly linked list of timeouts that hash to the same slot
+    private static final class Bucket {
+        private Timeout head, tail;
+
+        void add(Timeout timeout) {
+            timeout.prev = tail;
+            timeout.next = null;
+            if (tail == null) head = timeout; else tail.next = timeout;
+            tail = timeout;
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.prev == null) head = timeout.next; else timeout.prev.next = timeout.next;
+            if (timeout.next == null) tail = timeout.prev; else timeout.next.prev = timeout.prev;
+            timeout.prev = timeout.next = null;
+        }
+
+        // Runs every timeout due at this tick; later rounds stay in the bucket
+        void expire(long currentTick) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.cancelled) {
+                    remove(timeout);
+                } else if (timeout.expireTick <= currentTick) {
+                    remove(timeout);
+                    try {
+                        timeout.task.run();
+                    } catch (Throwable t) {
+                        System.err.println("Timer task failed: " + t);
+                    }
+                }
+                timeout = next;
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.javachat.net;
+
+import com.javachat.config.ChatConfig;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Detects idle and half-open connections using the shared timer wheel.
+// The reader and writer only store a timestamp per line; one timeout per connection
+// checks them. When nothing was written for writeIdleMs a PING is sent, and when
+// nothing was read for readIdleMs the connection is considered dead and closed.
+// Both callbacks run on the wheel thread, which every timer in the process shares, so they
+// must not block: onWriteIdle should queue the PING for the connection's writer, not write it.
+public class IdleWatchdog {
+    public static final String PING = "KEEPALIVE:PING"; // Sent when we have been quiet too long
+    public static final String PONG = "KEEPALIVE:PONG"; // Reply to a PING, proves the peer is alive
+
+    public static final String READ_TIMEOUT_MS = "chat.idle.readTimeoutMs";
+    public static final String PING_INTERVAL_MS = "chat.idle.pingIntervalMs";
+    public static final long DEFAULT_READ_IDLE_MS = 45_000;
+    public static final long DEFAULT_WRITE_IDLE_MS = 15_000;
+
+    private final HashedTimerWheel wheel;
+    private final long readIdleNanos;
+    private final long writeIdleNanos;
+    private final Runnable onWriteIdle;  // Usually queues a PING; must not block
+    private final Runnable onReadIdle;   // Usually closes the socket
+
+    private volatile long lastReadAt = System.nanoTime();
+    private volatile long lastWriteAt = System.nanoTime();
+    private volatile boolean stopped;
+    private volatile HashedTimerWheel.Timeout timeout;
+
+    public IdleWatchdog(HashedTimerWheel wheel, long readIdleMs, long writeIdleMs, Runnable onWriteIdle, Runnable onReadIdle) {
+        if (readIdleMs <= writeIdleMs) throw new IllegalArgumentException("Read timeout must be longer than the ping interval");
+        this.wheel = wheel;
+        this.readIdleNanos = TimeUnit.MILLISECONDS.toNanos(readIdleMs);
+        this.writeIdleNanos = TimeUnit.MILLISECONDS.toNanos(writeIdleMs);
+        this.onWriteIdle = onWriteIdle;
+        this.onReadIdle = onReadIdle;
+    }
+
+    // Creates a watchdog with the configured timeouts on the shared wheel
+    public static IdleWatchdog fromConfig(ChatConfig config, Runnable onWriteIdle, Runnable onReadIdle) {
+        return new IdleWatchdog(HashedTimerWheel.shared(),
+                config.getLong(READ_TIMEOUT_MS, DEFAULT_READ_IDLE_MS),
+                config.getLong(PING_INTERVAL_MS, DEFAULT_WRITE_IDLE_MS),
+                onWriteIdle, onReadIdle);
+    }
+
+    public void start() {
+        long now = System.nanoTime();
+        lastReadAt = now;
+        lastWriteAt = now;
+        schedule(Math.min(readIdleNanos, writeIdleNanos));
+    }
+
+    public void stop() {
+        stopped = true;
+        HashedTimerWheel.Timeout current = timeout;
+        if (current != null) current.cancel();
+    }
+
+    // Called by the reader for every line received
+    public void onRead() {
+        lastReadAt = System.nanoTime();
+    }
+
+    // Called by the writer for every line sent
+    public void onWrite() {
+        lastWriteAt = System.nanoTime();
+    }
+
+    // Returns true if the line was a keepalive frame and has been handled
+    public boolean handleKeepalive(String line, Consumer<String> sender) {
+        if (PING.equals(line)) {
+            sender.accept(PONG);
+            return true;
+        }
+        return PONG.equals(line);
+    }
+
+    private void check() {
+        if (stopped) return;
+        long now = System.nanoTime();
+        long readIdle = now - lastReadAt;
+        if (readIdle >= readIdleNanos) {
+            stopped = true;
+            onReadIdle.run();
+            return;
+        }
+        if (now - lastWriteAt >= writeIdleNanos) {
+            onWriteIdle.run();
+            lastWriteAt = now; // The PING is on its way; the write itself happens elsewhere
+        }
+        // Next check when either timer could expire at the earliest
+        long nextRead = readIdleNanos - readIdle;
+        long nextWrite = writeIdleNanos - (System.nanoTime() - lastWriteAt);
+        schedule(Math.max(1, Math.min(nextRead, nextWrite)));
+    }
+
+    private void schedule(long delayNanos) {
+        timeout = wheel.schedule(this::check, delayNanos, TimeUnit.NANOSECONDS);
+    }
+}
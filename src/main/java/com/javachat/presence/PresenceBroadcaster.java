@@ -0,0 +1,134 @@
+package com.javachat.presence;
+
+import com.javachat.net.HashedTimerWheel;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Sends our own presence to the peer.
+// Keystrokes only update local state; frames go out when the state actually changes,
+// at most once per MIN_INTERVAL, and otherwise as a slow heartbeat. Bursts of state
+// changes inside one interval are coalesced into a single frame carrying the latest state.
+public class PresenceBroadcaster {
+    static final long MIN_INTERVAL_MS = 500;       // Minimum gap between two frames
+    static final long TYPING_IDLE_MS = 2_000;      // No keystroke for this long means we stopped typing
+    static final long TYPING_REFRESH_MS = 3_000;   // Resend TYPING this often while typing continues
+    static final long HEARTBEAT_MS = 20_000;       // Resend ONLINE this often so the peer does not expire us
+
+    private final Consumer<String> sender;         // Queues a line for the connection; called on the wheel thread, so it must not block
+    private final HashedTimerWheel wheel;
+
+    private PresenceState desired = PresenceState.ONLINE; // State we want the peer to see
+    private PresenceState lastSent;                       // State in the last frame, null before the first
+    private long lastSentAt;                              // Time of the last frame (ms)
+    private long lastKeystrokeAt;                         // Time of the last keystroke (ms)
+    private long seq;                                     // Last sequence number used
+    private boolean flushScheduled;                       // A deferred flush is already on the wheel
+    private boolean typingCheckScheduled;                 // A typing idle check is already on the wheel
+    private boolean stopped;
+    private HashedTimerWheel.Timeout heartbeat;
+
+    public PresenceBroadcaster(Consumer<String> sender, HashedTimerWheel wheel) {
+        this.sender = sender;
+        this.wheel = wheel;
+    }
+
+    // Announces that we are online and starts the heartbeat
+    public synchronized void start() {
+        flush();
+        scheduleHeartbeat();
+    }
+
+    // Called on every change of the input field; cheap when nothing needs to be sent
+    public synchronized void onInputChanged(boolean hasText) {
+        if (stopped) return;
+        long now = System.currentTimeMillis();
+        if (!hasText) {
+            setDesired(PresenceState.ONLINE, now);
+            return;
+        }
+        lastKeystrokeAt = now;
+        if (desired == PresenceState.TYPING && lastSent == PresenceState.TYPING) return; // Already announced
+        if (!typingCheckScheduled) {
+            typingCheckScheduled = true;
+            wheel.schedule(this::checkTypingIdle, TYPING_IDLE_MS, TimeUnit.MILLISECONDS);
+        }
+        setDesired(PresenceState.TYPING, now);
+    }
+
+    // Called after a message was sent; typing is over
+    public synchronized void onMessageSent() {
+        if (stopped) return;
+        setDesired(PresenceState.ONLINE, System.currentTimeMillis());
+    }
+
+    // Sends a final OFFLINE frame and stops all timers. The frame goes through finalSender, not the
+    // queuing sender, so the caller can write it directly and have it arrive before its next line.
+    public synchronized void stop(Consumer<String> finalSender) {
+        if (stopped) return;
+        desired = PresenceState.OFFLINE;
+        send(System.currentTimeMillis(), finalSender);
+        stopped = true;
+        if (heartbeat != null) heartbeat.cancel();
+    }
+
+    private void setDesired(PresenceState state, long now) {
+        desired = state;
+        if (desired == lastSent) return; // Nothing new for the peer
+        if (now - lastSentAt >= MIN_INTERVAL_MS) {
+            send(now);
+        } else if (!flushScheduled) {
+            // Rate limited: send whatever the state is once the interval has passed
+            flushScheduled = true;
+            wheel.schedule(this::deferredFlush, MIN_INTERVAL_MS - (now - lastSentAt), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void deferredFlush() {
+        flushScheduled = false;
+        if (!stopped && desired != lastSent) flush();
+    }
+
+    // Falls back to ONLINE once keystrokes stop; re-arms itself while typing continues
+    private synchronized void checkTypingIdle() {
+        typingCheckScheduled = false;
+        if (stopped || desired != PresenceState.TYPING) return;
+        long idle = System.currentTimeMillis() - lastKeystrokeAt;
+        if (idle >= TYPING_IDLE_MS) {
+            setDesired(PresenceState.ONLINE, System.currentTimeMillis());
+        } else {
+            typingCheckScheduled = true;
+            wheel.schedule(this::checkTypingIdle, TYPING_IDLE_MS - idle, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Refreshes the current state so the peer's expiry does not kick in
+    private synchronized void onHeartbeat() {
+        if (stopped) return;
+        long now = System.currentTimeMillis();
+        long interval = desired == PresenceState.TYPING ? TYPING_REFRESH_MS : HEARTBEAT_MS;
+        if (now - lastSentAt >= interval) send(now);
+        scheduleHeartbeat();
+    }
+
+    // The heartbeat ticks at the shorter refresh interval and only sends when a refresh is due
+    private void scheduleHeartbeat() {
+        heartbeat = wheel.schedule(this::onHeartbeat, TYPING_REFRESH_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        send(System.currentTimeMillis());
+    }
+
+    private void send(long now) {
+        send(now, sender);
+    }
+
+    private void send(long now, Consumer<String> target) {
+        // Sequence numbers are time based, so they keep increasing across reconnects
+        seq = Math.max(seq + 1, now);
+        lastSent = desired;
+        lastSentAt = now;
+        target.accept(new PresenceFrame(seq, desired).encode());
+    }
+}
@@ -0,0 +1,25 @@
+package com.javachat.presence;
+
+// Wire format for presence updates: "PRESENCE:<seq>:<STATE>".
+// Every frame carries the full state and a sequence number, so duplicates and
+// out-of-date frames can be dropped and resending a frame is always safe.
+public record PresenceFrame(long seq, PresenceState state) {
+    public static final String PREFIX = "PRESENCE:";
+
+    public String encode() {
+        return PREFIX + seq + ":" + state.name();
+    }
+
+    // Parses a presence line; returns null if it is malformed
+    public static PresenceFrame decode(String line) {
+        if (line == null || !line.startsWith(PREFIX)) return null;
+        int colon = line.indexOf(':', PREFIX.length());
+        if (colon < 0) return null;
+        try {
+            long seq = Long.parseLong(line, PREFIX.length(), colon, 10);
+            return new PresenceFrame(seq, PresenceState.valueOf(line.substring(colon + 1)));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
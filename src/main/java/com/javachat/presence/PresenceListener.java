@@ -0,0 +1,6 @@
+package com.javachat.presence;
+
+// Callback for presence changes of a peer; called from the timer wheel or reader thread
+public interface PresenceListener {
+    void onPresenceChanged(String peer, PresenceState state);
+}
@@ -0,0 +1,117 @@
+package com.javachat.presence;
+
+import com.javachat.net.HashedTimerWheel;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Tracks the presence of remote peers and expires them on the shared timer wheel.
+// Each peer has at most one outstanding timeout; refreshes only bump a timestamp and the
+// timeout re-arms itself for the remaining time when it fires, so heartbeats from many
+// peers never cancel or reschedule anything.
+public class PresenceRegistry {
+    static final long ONLINE_TIMEOUT_MS = 3 * PresenceBroadcaster.HEARTBEAT_MS; // Missed heartbeats before OFFLINE
+    static final long TYPING_TIMEOUT_MS = 2 * PresenceBroadcaster.TYPING_REFRESH_MS; // Missed refreshes before ONLINE
+
+    private final ConcurrentHashMap<String, Peer> peers = new ConcurrentHashMap<>();
+    private final HashedTimerWheel wheel;
+    private final PresenceListener listener;
+
+    public PresenceRegistry(HashedTimerWheel wheel, PresenceListener listener) {
+        this.wheel = wheel;
+        this.listener = listener;
+    }
+
+    // Handles a "PRESENCE:" line received from the given peer
+    public void onFrame(String peerId, String line) {
+        PresenceFrame frame = PresenceFrame.decode(line);
+        if (frame != null) update(peerId, frame.seq(), frame.state());
+    }
+
+    // Applies an update; stale or duplicate sequence numbers are ignored
+    public void update(String peerId, long seq, PresenceState state) {
+        PresenceState changed = null;
+        while (true) {
+            Peer peer = peers.computeIfAbsent(peerId, Peer::new);
+            synchronized (peer) {
+                // An expiry may have removed the entry after it was looked up; updating that orphan
+                // would report a state get() does not, so retry with the current entry
+                if (peers.get(peerId) != peer) continue;
+                if (seq <= peer.seq) return;
+                peer.seq = seq;
+                peer.lastSeenAt = System.currentTimeMillis();
+                if (peer.state != state) changed = peer.state = state;
+                if (state == PresenceState.OFFLINE) {
+                    peers.remove(peerId, peer);
+                } else {
+                    long deadline = peer.lastSeenAt + timeoutFor(state);
+                    if (peer.checkAt == 0 || deadline < peer.checkAt) arm(peer, deadline); // Only when an earlier check is needed
+                }
+            }
+            break;
+        }
+        if (changed != null) listener.onPresenceChanged(peerId, changed);
+    }
+
+    // Marks a peer offline right away, e.g. when its connection closes
+    public void remove(String peerId) {
+        Peer peer = peers.remove(peerId);
+        if (peer == null) return;
+        synchronized (peer) {
+            if (peer.state == PresenceState.OFFLINE) return;
+            peer.state = PresenceState.OFFLINE;
+        }
+        listener.onPresenceChanged(peerId, PresenceState.OFFLINE);
+    }
+
+    public PresenceState get(String peerId) {
+        Peer peer = peers.get(peerId);
+        return peer == null ? PresenceState.OFFLINE : peer.state;
+    }
+
+    public int size() {
+        return peers.size();
+    }
+
+    // Schedules the next expiry check; a check superseded by an earlier one becomes a no-op
+    private void arm(Peer peer, long deadline) {
+        peer.checkAt = deadline;
+        wheel.schedule(() -> checkExpiry(peer, deadline), Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    }
+
+    // Runs on the wheel thread: downgrade the peer if it has been silent too long, otherwise re-arm
+    private void checkExpiry(Peer peer, long deadline) {
+        PresenceState changed = null;
+        synchronized (peer) {
+            if (peer.checkAt != deadline) return; // Superseded
+            peer.checkAt = 0;
+            if (peer.state == PresenceState.OFFLINE) return;
+            if (System.currentTimeMillis() - peer.lastSeenAt >= timeoutFor(peer.state)) {
+                // TYPING decays to ONLINE, ONLINE decays to OFFLINE
+                changed = peer.state = peer.state == PresenceState.TYPING ? PresenceState.ONLINE : PresenceState.OFFLINE;
+                if (changed == PresenceState.OFFLINE) {
+                    peers.remove(peer.id, peer);
+                }
+            }
+            if (peer.state != PresenceState.OFFLINE) arm(peer, peer.lastSeenAt + timeoutFor(peer.state));
+        }
+        if (changed != null) listener.onPresenceChanged(peer.id, changed);
+    }
+
+    private static long timeoutFor(PresenceState state) {
+        return state == PresenceState.TYPING ? TYPING_TIMEOUT_MS : ONLINE_TIMEOUT_MS;
+    }
+
+    // Mutable per-peer state, guarded by its own monitor
+    private static final class Peer {
+        final String id;
+        PresenceState state = PresenceState.OFFLINE;
+        long seq;         // Highest sequence number seen
+        long lastSeenAt;  // Time of the last accepted frame (ms)
+        long checkAt;     // Deadline of the pending expiry check (ms), 0 if none
+
+        Peer(String id) {
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.javachat.presence;
+
+// Presence states exchanged between peers
+public enum PresenceState {
+    ONLINE,  // Connected, not typing
+    TYPING,  // Currently typing a message
+    OFFLINE  // Disconnected or expired
+}
@@ -0,0 +1,116 @@
+package com.javachat.ratelimit;
+
+import com.javachat.metrics.Metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Server-side limits for one connection: messages/sec and bytes/sec for the connection
+// itself and for the room it belongs to, so one noisy client cannot starve the others.
+// Frames within the burst pass immediately, frames slightly over are delayed (the reader
+// parks, which pushes TCP backpressure to the sender), and the rest are rejected.
+// A frame larger than a byte burst, such as a file sent as one base64 line, could never fit,
+// so it is allowed to wait as long as the refill of its excess takes: it is paced, not dropped.
+// Limiters come from a server's RateLimits, which reads the limits from its ChatConfig.
+public final class RateLimiter {
+    private static final LongAdder ACCEPTED = Metrics.counter("ratelimit.accepted.messages");
+    private static final LongAdder DELAYED = Metrics.counter("ratelimit.delayed.messages");
+    private static final LongAdder DELAYED_NANOS = Metrics.counter("ratelimit.delayed.nanos");
+    private static final LongAdder REJECTED = Metrics.counter("ratelimit.rejected.messages");
+    private static final LongAdder REJECTED_BYTES = Metrics.counter("ratelimit.rejected.bytes");
+
+    private final RateLimits limits;
+    private final TokenBucket messages;
+    private final TokenBucket bytes;
+    private final long maxDelayNanos;
+    private volatile RateLimits.Room room; // Null once closed
+    private final Object roomLock = new Object(); // Serializes joins and close, never taken by admit()
+
+    RateLimiter(RateLimits limits, RateLimits.Room room) {
+        this.limits = limits;
+        this.messages = new TokenBucket(limits.connectionMessagesPerSec, limits.connectionMessageBurst);
+        this.bytes = new TokenBucket(limits.connectionBytesPerSec, limits.connectionByteBurst);
+        this.maxDelayNanos = limits.maxDelayNanos;
+        this.room = room;
+    }
+
+    // Moves the connection to another room; its own buckets keep their state
+    public void joinRoom(String roomName) {
+        synchronized (roomLock) {
+            RateLimits.Room current = room;
+            if (current == null || current.name.equals(roomName)) return;
+            room = limits.enter(roomName);
+            limits.leave(current);
+        }
+    }
+
+    // Leaves the room when the connection ends, so an empty room's buckets can go
+    public void close() {
+        synchronized (roomLock) {
+            RateLimits.Room current = room;
+            if (current == null) return;
+            room = null;
+            limits.leave(current);
+        }
+    }
+
+    // Admits one frame of the given size in bytes (see utf8Length).
+    // Returns 0 to process it now, the nanos to wait before processing it, or -1 to drop it.
+    public long admit(long frameBytes) {
+        RateLimits.Room room = this.room;
+        if (room == null) return reject(frameBytes); // Connection already closed
+        long wait = messages.reserve(1, maxDelayNanos);
+        if (wait < 0) return reject(frameBytes);
+        long w = bytes.reserve(frameBytes, maxDelayNanos + bytes.excessNanos(frameBytes));
+        if (w < 0) {
+            messages.refund(1);
+            return reject(frameBytes);
+        }
+        wait = Math.max(wait, w);
+        w = room.messages.reserve(1, maxDelayNanos);
+        if (w < 0) {
+            messages.refund(1);
+            bytes.refund(frameBytes);
+            return reject(frameBytes);
+        }
+        wait = Math.max(wait, w);
+        w = room.bytes.reserve(frameBytes, maxDelayNanos + room.bytes.excessNanos(frameBytes));
+        if (w < 0) {
+            messages.refund(1);
+            bytes.refund(frameBytes);
+            room.messages.refund(1);
+            return reject(frameBytes);
+        }
+        wait = Math.max(wait, w);
+        ACCEPTED.increment();
+        if (wait > 0) {
+            DELAYED.increment();
+            DELAYED_NANOS.add(wait);
+        }
+        return wait;
+    }
+
+    // Size of a line in UTF-8, which is what the byte limits count, without encoding it
+    public static long utf8Length(CharSequence text) {
+        long bytes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                bytes += 4; // A surrogate pair is one 4-byte code point
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    private static long reject(long frameBytes) {
+        REJECTED.increment();
+        REJECTED_BYTES.add(frameBytes);
+        return -1;
+    }
+}
@@ -0,0 +1,85 @@
+package com.javachat.ratelimit;
+
+import com.javachat.config.ChatConfig;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// The configured limits of one server, and the buckets of its rooms.
+// A room's buckets exist while at least one connection is in it, so rooms that empty out
+// do not pile up; a room that fills again starts with full buckets.
+public final class RateLimits {
+    public static final String CONNECTION_MESSAGES_PER_SEC = "chat.rate.connection.messagesPerSec";
+    public static final String CONNECTION_MESSAGE_BURST = "chat.rate.connection.messageBurst";
+    public static final String CONNECTION_BYTES_PER_SEC = "chat.rate.connection.bytesPerSec";
+    public static final String CONNECTION_BYTE_BURST = "chat.rate.connection.byteBurst";
+    public static final String ROOM_MESSAGES_PER_SEC = "chat.rate.room.messagesPerSec";
+    public static final String ROOM_MESSAGE_BURST = "chat.rate.room.messageBurst";
+    public static final String ROOM_BYTES_PER_SEC = "chat.rate.room.bytesPerSec";
+    public static final String ROOM_BYTE_BURST = "chat.rate.room.byteBurst";
+    public static final String MAX_DELAY_MS = "chat.rate.maxDelayMs";
+
+    final long connectionMessagesPerSec;
+    final long connectionMessageBurst;
+    final long connectionBytesPerSec;
+    final long connectionByteBurst;
+    final long maxDelayNanos;
+    private final long roomMessagesPerSec;
+    private final long roomMessageBurst;
+    private final long roomBytesPerSec;
+    private final long roomByteBurst;
+    private final ConcurrentHashMap<String, Room> rooms = new ConcurrentHashMap<>();
+
+    private RateLimits(ChatConfig config) {
+        this.connectionMessagesPerSec = config.getLong(CONNECTION_MESSAGES_PER_SEC, 20);
+        this.connectionMessageBurst = config.getLong(CONNECTION_MESSAGE_BURST, 40);
+        this.connectionBytesPerSec = config.getLong(CONNECTION_BYTES_PER_SEC, 1 << 20);
+        this.connectionByteBurst = config.getLong(CONNECTION_BYTE_BURST, 8 << 20);
+        this.roomMessagesPerSec = config.getLong(ROOM_MESSAGES_PER_SEC, 200);
+        this.roomMessageBurst = config.getLong(ROOM_MESSAGE_BURST, 400);
+        this.roomBytesPerSec = config.getLong(ROOM_BYTES_PER_SEC, 8 << 20);
+        this.roomByteBurst = config.getLong(ROOM_BYTE_BURST, 32 << 20);
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(config.getLong(MAX_DELAY_MS, 2_000));
+    }
+
+    public static RateLimits from(ChatConfig config) {
+        return new RateLimits(config);
+    }
+
+    // Creates the limiter for a new connection in the given room; close it when the connection ends
+    public RateLimiter forConnection(String roomName) {
+        return new RateLimiter(this, enter(roomName));
+    }
+
+    // Number of rooms that currently have connections
+    int roomCount() {
+        return rooms.size();
+    }
+
+    Room enter(String roomName) {
+        return rooms.compute(roomName, (name, room) -> {
+            if (room == null) room = new Room(name);
+            room.members++;
+            return room;
+        });
+    }
+
+    void leave(Room room) {
+        rooms.computeIfPresent(room.name, (name, current) -> {
+            if (current != room) return current;
+            return --current.members == 0 ? null : current;
+        });
+    }
+
+    // Buckets shared by every connection in a room
+    final class Room {
+        final String name;
+        final TokenBucket messages = new TokenBucket(roomMessagesPerSec, roomMessageBurst);
+        final TokenBucket bytes = new TokenBucket(roomBytesPerSec, roomByteBurst);
+        private int members; // Only changed inside rooms.compute, which serializes it
+
+        Room(String name) {
+            this.name = name;
+        }
+    }
+}
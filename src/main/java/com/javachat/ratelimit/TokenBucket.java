@@ -0,0 +1,57 @@
+package com.javachat.ratelimit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Lock-free token bucket, implemented as a generic cell rate algorithm (GCRA).
+// The whole state is a single "paid until" timestamp updated with CAS: taking n tokens
+// moves it n * nanosPerToken into the future, and the bucket is over its limit when it
+// runs more than capacity tokens ahead of the clock. No locks and no allocation per call.
+public final class TokenBucket {
+    private final long nanosPerToken;  // Refill interval of one token
+    private final long burstNanos;     // capacity * nanosPerToken, how far ahead the clock we may run
+    private final AtomicLong paidUntil;
+
+    public TokenBucket(long tokensPerSecond, long capacity) {
+        if (tokensPerSecond <= 0 || capacity <= 0) throw new IllegalArgumentException("Rate and capacity must be positive");
+        this.nanosPerToken = Math.max(1, TimeUnit.SECONDS.toNanos(1) / tokensPerSecond);
+        this.burstNanos = saturatedMultiply(capacity, nanosPerToken);
+        this.paidUntil = new AtomicLong(System.nanoTime()); // Start full
+    }
+
+    // Takes tokens if they are available now or within maxWaitNanos.
+    // Returns 0 if granted immediately, the nanos to wait before proceeding if granted later,
+    // or -1 if the wait would exceed maxWaitNanos (nothing is taken in that case).
+    public long reserve(long tokens, long maxWaitNanos) {
+        long cost = saturatedMultiply(tokens, nanosPerToken);
+        while (true) {
+            long now = System.nanoTime();
+            long current = paidUntil.get();
+            long next = Math.max(current, now) + cost; // A bucket paid up before now is simply full
+            long wait = next - now - burstNanos;
+            if (wait > maxWaitNanos) return -1;
+            if (paidUntil.compareAndSet(current, next)) return Math.max(0, wait);
+        }
+    }
+
+    // Takes tokens only if they are available right now
+    public boolean tryAcquire(long tokens) {
+        return reserve(tokens, 0) == 0;
+    }
+
+    // How long refilling the part of tokens that does not fit in the capacity takes; 0 if they all fit
+    public long excessNanos(long tokens) {
+        return Math.max(0, saturatedMultiply(tokens, nanosPerToken) - burstNanos);
+    }
+
+    // Gives back tokens taken by reserve, e.g. when a later check rejected the frame
+    public void refund(long tokens) {
+        paidUntil.addAndGet(-saturatedMultiply(tokens, nanosPerToken));
+    }
+
+    private static long saturatedMultiply(long a, long b) {
+        long high = Math.multiplyHigh(a, b);
+        long low = a * b;
+        return (high == 0 && low >= 0) ? low : Long.MAX_VALUE / 4;
+    }
+}
@@ -0,0 +1,239 @@
+package com.javachat.server;
+
+import com.javachat.config.ChatConfig;
+import com.javachat.metrics.Metrics;
+import com.javachat.net.HashedTimerWheel;
+import com.javachat.presence.PresenceFrame;
+import com.javachat.presence.PresenceRegistry;
+import com.javachat.ratelimit.RateLimits;
+import com.javachat.store.MessageArchive;
+import com.javachat.store.MessageStore;
+import com.javachat.store.RetentionJob;
+import com.javachat.store.RetentionPolicy;
+import com.javachat.store.ShardedMessageStore;
+import com.javachat.tls.TlsContext;
+import com.javachat.tls.TlsEngine;
+import com.javachat.trace.MessageDecodedEvent;
+import com.javachat.trace.MessagePersistedEvent;
+import com.javachat.trace.MessageTrace;
+import com.javachat.transfer.AttachmentTransfer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Headless chat server: relays every client's lines to the other clients in its room and keeps the history.
+// A client joins a room with "ROOM:<name>" (until then it is in the default room); the room is the
+// conversation its messages are stored under, so rooms spread over the store's shards.
+// It never touches Swing, so it runs on display-less machines. Connections are spread over
+// chat.io.threads selector loops; line handling and persistence run on chat.worker.threads.
+public class ChatServer {
+    public static final String JOIN = "ROOM:";
+    static final int MAX_ROOM_LENGTH = 64;
+    private static final long METRICS_INTERVAL_SECONDS = 60;
+    private static final long SHUTDOWN_SECONDS = 10; // How long stop() waits for lines being handled
+
+    private final ChatConfig config;
+    private final ShardedMessageStore store;
+    private final List<RetentionJob> retention = new ArrayList<>(); // One per shard
+    private final PresenceRegistry presence;
+    private final RateLimits rateLimits;
+    private final ConcurrentHashMap<String, Connection> connections = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private final LongAdder relayed = Metrics.counter("server.relayed.lines");
+    private IoLoop[] loops;
+    private ExecutorService workers;
+    private ServerSocketChannel serverChannel;
+    private TlsContext tls; // Null when TLS is disabled
+
+    public ChatServer(ChatConfig config) {
+        this.config = config;
+        this.store = ShardedMessageStore.open(config, ChatConfig.SERVER_DB);
+        MessageArchive archive = new MessageArchive(config.archiveDir()); // Shared, so file names stay unique
+        for (MessageStore shard : store.shards()) {
+            retention.add(new RetentionJob(shard, null, archive, RetentionPolicy.from(config)));
+        }
+        this.rateLimits = RateLimits.from(config);
+        this.presence = new PresenceRegistry(HashedTimerWheel.shared(),
+                (peer, state) -> System.out.println(peer + " is " + state.name().toLowerCase()));
+    }
+
+    // Binds the port, starts the I/O loops and accepts clients on the calling thread
+    public void start() throws IOException {
+        try {
+            store.initialize();
+            retention.forEach(RetentionJob::start);
+        } catch (SQLException e) {
+            System.err.println("Database initialization error: " + e.getMessage());
+        }
+
+        try {
+            tls = TlsContext.fromConfig(config);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Error loading TLS keys: " + e.getMessage(), e);
+        }
+
+        // Bound before any thread starts, so a taken port fails without leaving threads behind
+        serverChannel = ServerSocketChannel.open();
+        config.applyListenOptions(serverChannel.socket()); // Accepted channels inherit the receive buffer
+        serverChannel.bind(new InetSocketAddress(config.bindAddress(), config.port()), 128);
+
+        AtomicInteger workerId = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(config.workerThreads(), r -> {
+            Thread t = new Thread(r, "chat-worker-" + workerId.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        loops = new IoLoop[config.ioThreads()];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new IoLoop("chat-io-" + (i + 1));
+            loops[i].start();
+        }
+
+        System.out.println("Headless server listening on " + serverChannel.getLocalAddress()
+                + (tls == null ? "" : " with TLS")
+                + " (" + loops.length + " I/O, " + config.workerThreads() + " worker threads)");
+        scheduleMetricsReport();
+        acceptLoop();
+    }
+
+    // Safe to call even if start() failed part way, e.g. because the port was taken
+    public void stop() {
+        try {
+            if (serverChannel != null) serverChannel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing server socket: " + e.getMessage());
+        }
+        connections.values().forEach(Connection::close);
+        if (loops != null) {
+            for (IoLoop loop : loops) {
+                if (loop != null) loop.stop();
+            }
+        }
+        if (workers != null) {
+            workers.shutdown();
+            try {
+                // Lines already handed to workers still get saved before the store stops taking them
+                if (!workers.awaitTermination(SHUTDOWN_SECONDS, TimeUnit.SECONDS)) {
+                    System.err.println("Workers still busy after " + SHUTDOWN_SECONDS + " s, closing the store anyway");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        retention.forEach(RetentionJob::stop);
+        store.close(); // Commits what is still queued
+    }
+
+    private void acceptLoop() {
+        int next = 0;
+        while (serverChannel.isOpen()) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                config.applySocketOptions(channel.socket());
+                channel.configureBlocking(false);
+                IoLoop loop = loops[next++ % loops.length]; // Round-robin over the loops
+                String name = "client-" + nextId.getAndIncrement();
+                TlsEngine engine = tls == null ? null : new TlsEngine(tls.serverEngine());
+                Connection connection = new Connection(name, channel, loop, this, workers, rateLimits.forConnection(MessageStore.DEFAULT_CONVERSATION), engine, config);
+                connections.put(name, connection);
+                loop.execute(() -> {
+                    try {
+                        connection.register();
+                        System.out.println(name + " connected from " + channel.getRemoteAddress());
+                    } catch (IOException e) {
+                        connection.close();
+                    }
+                });
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                System.err.println("Error accepting connection: " + e.getMessage());
+            }
+        }
+    }
+
+    // Handles one line from a client; runs on a worker, in order per connection
+    void handle(Connection from, String line, long messageId) {
+        MessageDecodedEvent decoded = MessageTrace.decoding();
+        if (line.equals("exit")) {
+            MessageTrace.decoded(decoded, messageId, from.name, "exit");
+            from.close();
+            return;
+        }
+        if (line.startsWith(JOIN)) {
+            String room = line.substring(JOIN.length()).trim();
+            if (!room.isEmpty() && room.length() <= MAX_ROOM_LENGTH) from.joinRoom(room);
+            MessageTrace.decoded(decoded, messageId, from.name, "join");
+            return;
+        }
+        String kind = "transfer";
+        String stored = null; // What goes into the database, if anything
+        if (line.startsWith(PresenceFrame.PREFIX)) {
+            kind = "presence";
+            presence.onFrame(from.name, line);
+        } else if (line.startsWith("FILE:")) {
+            String[] parts = line.split(":", 3);
+            stored = "Sent " + (parts.length == 3 ? parts[1] : "unknown") + " file"; // Only the description is kept
+        } else if (line.startsWith(AttachmentTransfer.OFFER)) {
+            String[] parts = line.substring(AttachmentTransfer.OFFER.length()).split(":", 3); // digest, type, name
+            if (parts.length == 3) stored = "Sent " + parts[1] + " file: " + parts[2];
+        } else if (line.startsWith(AttachmentTransfer.HAVE) || line.startsWith(AttachmentTransfer.WANT)
+                || line.startsWith(AttachmentTransfer.BLOB)) {
+            // Transfer negotiation and contents are relayed but not stored
+        } else {
+            kind = "text";
+            stored = line;
+        }
+        MessageTrace.decoded(decoded, messageId, from.name, kind);
+        if (stored != null) save(from.room, from.name, stored, messageId);
+        broadcast(from, line, messageId);
+    }
+
+    void onClosed(Connection connection) {
+        if (connections.remove(connection.name, connection)) {
+            presence.remove(connection.name);
+            System.out.println(connection.name + " disconnected");
+        }
+    }
+
+    // Encodes the line once; every recipient in the sender's room gets its own view of the same bytes
+    private void broadcast(Connection from, String line, long messageId) {
+        ByteBuffer encoded = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+        String room = from.room;
+        for (Connection connection : connections.values()) {
+            if (connection != from && connection.room.equals(room)) {
+                connection.send(encoded, messageId);
+                relayed.increment();
+            }
+        }
+    }
+
+    // Queues a message for its shard's writer, so workers never wait for SQLite
+    private void save(String conversation, String sender, String message, long messageId) {
+        MessagePersistedEvent persisted = MessageTrace.persisting();
+        store.save(conversation, sender, message, null)
+                .whenComplete((id, e) -> MessageTrace.end(persisted, messageId, sender)); // Errors are logged by the writer
+    }
+
+    private void scheduleMetricsReport() {
+        HashedTimerWheel.shared().schedule(() -> {
+            System.out.println(Metrics.report());
+            if (serverChannel.isOpen()) scheduleMetricsReport();
+        }, METRICS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+}
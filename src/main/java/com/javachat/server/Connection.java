@@ -0,0 +1,236 @@
+package com.javachat.server;
+
+import com.javachat.config.ChatConfig;
+import com.javachat.net.HashedTimerWheel;
+import com.javachat.net.IdleWatchdog;
+import com.javachat.ratelimit.RateLimiter;
+import com.javachat.store.MessageStore;
+import com.javachat.tls.TlsEngine;
+import com.javachat.trace.MessageTrace;
+import com.javachat.trace.MessageWrittenEvent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// One client connection on the headless server.
+// The I/O loop splits incoming bytes into lines and hands them to the server on the
+// connection's serial executor; outgoing lines are queued and written by the I/O loop.
+// With TLS the same happens on the plaintext side of a TlsEngine.
+final class Connection {
+    static final int MAX_LINE_BYTES = 64 << 20;       // Longest accepted line, large enough for FILE: frames
+    static final long MAX_OUTBOUND_BYTES = 128L << 20; // Queued output before a slow reader is dropped
+
+    final String name;
+    volatile String room = MessageStore.DEFAULT_CONVERSATION; // Changed by joinRoom on the worker handling this connection
+    private final SocketChannel channel;
+    private final IoLoop loop;
+    private final ChatServer server;
+    private final Executor serial;        // Handles this connection's lines in order
+    private final RateLimiter rateLimiter;
+    private final IdleWatchdog watchdog;
+    private final TlsEngine tls;          // Null for plaintext connections
+    private SelectionKey key;
+
+    private byte[] line = new byte[1024]; // Bytes of the line being assembled
+    private int lineLength;
+
+    private final Queue<Outbound> outbound = new ConcurrentLinkedQueue<>();
+    private final AtomicLong outboundBytes = new AtomicLong();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile boolean readSuspended;
+
+    Connection(String name, SocketChannel channel, IoLoop loop, ChatServer server, Executor workers,
+               RateLimiter rateLimiter, TlsEngine tls, ChatConfig config) {
+        this.name = name;
+        this.channel = channel;
+        this.loop = loop;
+        this.server = server;
+        this.serial = new SerialExecutor(workers);
+        this.rateLimiter = rateLimiter;
+        this.tls = tls;
+        this.watchdog = IdleWatchdog.fromConfig(config, () -> send(IdleWatchdog.PING), this::close);
+    }
+
+    // Registers with the selector; must run on the loop thread
+    void register() throws ClosedChannelException {
+        key = channel.register(loop.selector(), SelectionKey.OP_READ, this);
+        watchdog.start();
+    }
+
+    // A queued line and, while recording, the event timing its way to the socket
+    private record Outbound(ByteBuffer buffer, long messageId, MessageWrittenEvent written) {}
+
+    // Moves the connection to another room, for relaying and for the room's rate limits
+    void joinRoom(String room) {
+        this.room = room;
+        rateLimiter.joinRoom(room);
+    }
+
+    // Queues a line for this client; safe from any thread
+    void send(String text) {
+        send(text, 0);
+    }
+
+    // Queues a relayed message; messageId ties the write to the message's other trace events
+    void send(String text, long messageId) {
+        send(ByteBuffer.wrap((text + "\n").getBytes(StandardCharsets.UTF_8)), messageId);
+    }
+
+    // Queues an encoded line ending in a newline; the buffer may be shared, only a duplicate is consumed
+    void send(ByteBuffer line, long messageId) {
+        if (closed.get()) return;
+        int bytes = line.remaining();
+        if (outboundBytes.addAndGet(bytes) > MAX_OUTBOUND_BYTES) {
+            System.out.println(name + " is not reading, dropping connection");
+            close();
+            return;
+        }
+        outbound.add(new Outbound(line.duplicate(), messageId, MessageTrace.writing(bytes)));
+        if (flushScheduled.compareAndSet(false, true)) loop.execute(this::flush);
+    }
+
+    void onReadable() {
+        if (tls != null) {
+            readTls();
+            return;
+        }
+        ByteBuffer buffer = loop.readBuffer();
+        try {
+            int read;
+            while ((read = channel.read(buffer.clear())) > 0) {
+                consume(buffer.flip());
+                if (closed.get() || readSuspended) return; // Rate limited: leave the rest in the socket
+            }
+            if (read < 0) close(); // Peer closed the connection
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    void onWritable() {
+        flush();
+        if (tls != null && tls.hasBufferedInput()) readTls(); // Records held back while the handshake waited to write
+    }
+
+    private void readTls() {
+        try {
+            int read;
+            do {
+                read = channel.read(tls.inbound());
+                if (!tls.unwrap(channel, loop.plainBuffer(), this::consume)) {
+                    close(); // close_notify from the peer
+                    return;
+                }
+                if (closed.get() || readSuspended) return;
+            } while (read > 0);
+            if (read < 0) close();
+            else if (!outbound.isEmpty() || tls.handshaking()) flush(); // Lines queued during the handshake
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    // Splits plaintext into lines
+    private void consume(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get();
+            if (b == '\n') {
+                long messageId = MessageTrace.nextId();
+                MessageTrace.received(messageId, name, lineLength + 1);
+                int length = lineLength > 0 && line[lineLength - 1] == '\r' ? lineLength - 1 : lineLength;
+                onLine(new String(line, 0, length, StandardCharsets.UTF_8), length, messageId);
+                lineLength = 0;
+                if (closed.get()) return;
+            } else {
+                append(b);
+            }
+        }
+    }
+
+    private void append(byte b) throws IOException {
+        if (lineLength == line.length) {
+            if (line.length >= MAX_LINE_BYTES) throw new IOException("Line too long from " + name);
+            line = Arrays.copyOf(line, Math.min(line.length * 2, MAX_LINE_BYTES));
+        }
+        line[lineLength++] = b;
+    }
+
+    private void onLine(String text, int bytes, long messageId) {
+        watchdog.onRead();
+        long wait = rateLimiter.admit(bytes);
+        if (wait < 0) { // Over the limit: dropped before any processing
+            MessageTrace.decoded(MessageTrace.decoding(), messageId, name, "dropped");
+            return;
+        }
+        if (wait > 0) suspendReading(wait);
+        if (watchdog.handleKeepalive(text, this::send)) return;
+        serial.execute(() -> server.handle(this, text, messageId));
+    }
+
+    // Stops reading for a while so TCP backpressure slows the client down
+    private void suspendReading(long nanos) {
+        readSuspended = true;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        HashedTimerWheel.shared().schedule(() -> loop.execute(this::resumeReading), nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void resumeReading() {
+        readSuspended = false;
+        if (key.isValid()) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            onReadable(); // Lines may already be waiting in the socket buffer
+        }
+    }
+
+    // Writes queued lines; runs on the loop thread
+    private void flush() {
+        flushScheduled.set(false);
+        if (closed.get() || key == null || !key.isValid()) return;
+        try {
+            Outbound next;
+            while ((next = outbound.peek()) != null) {
+                ByteBuffer buffer = next.buffer();
+                int remaining = buffer.remaining();
+                if (tls == null) channel.write(buffer); else tls.write(channel, buffer);
+                outboundBytes.addAndGet(buffer.remaining() - remaining);
+                if (buffer.hasRemaining()) break; // Socket buffer full (or TLS handshake not done yet)
+                outbound.poll();
+                MessageTrace.end(next.written(), next.messageId(), name);
+                watchdog.onWrite();
+            }
+            // Plaintext waits for OP_WRITE while lines are queued; TLS only while records are, not while handshaking
+            boolean pending = tls == null ? !outbound.isEmpty() : !tls.flush(channel);
+            int ops = key.interestOps();
+            key.interestOps(pending ? ops | SelectionKey.OP_WRITE : ops & ~SelectionKey.OP_WRITE);
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    void close() {
+        if (!closed.compareAndSet(false, true)) return;
+        watchdog.stop();
+        rateLimiter.close();
+        if (key != null) key.cancel();
+        if (tls != null && loop.inLoop()) tls.close(channel); // The engine belongs to the loop thread
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing " + name + ": " + e.getMessage());
+        }
+        outbound.clear();
+        server.onClosed(this);
+    }
+}
@@ -0,0 +1,97 @@
+package com.javachat.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// One selector thread serving many connections.
+// Only this thread touches its selector and keys; other threads hand work over with execute().
+final class IoLoop implements Runnable {
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024); // Shared by all connections of this loop
+    private final ByteBuffer plainBuffer = ByteBuffer.allocate(64 * 1024);      // Decrypted TLS records, likewise shared
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    IoLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    Selector selector() {
+        return selector;
+    }
+
+    ByteBuffer readBuffer() {
+        return readBuffer;
+    }
+
+    ByteBuffer plainBuffer() {
+        return plainBuffer;
+    }
+
+    boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    // Runs a task on the loop thread
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (!inLoop()) selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                // Tasks queued from this thread did not wake the selector, so do not block on them
+                if (tasks.isEmpty()) selector.select(); else selector.selectNow();
+                runTasks();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Connection connection = (Connection) key.attachment();
+                    if (!key.isValid()) continue;
+                    if (key.isReadable()) connection.onReadable();
+                    if (key.isValid() && key.isWritable()) connection.onWritable();
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            System.err.println("I/O loop " + thread.getName() + " failed: " + e.getMessage());
+        } finally {
+            for (SelectionKey key : selector.keys()) ((Connection) key.attachment()).close();
+            try {
+                selector.close();
+            } catch (IOException e) {
+                System.err.println("Error closing selector: " + e.getMessage());
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.err.println("I/O task failed: " + e);
+            }
+        }
+    }
+}
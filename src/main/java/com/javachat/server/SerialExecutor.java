@@ -0,0 +1,34 @@
+package com.javachat.server;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+// Runs tasks one at a time, in submission order, on a shared pool.
+// Each connection gets one, so its lines are handled in order while different
+// connections still run in parallel on the worker threads.
+final class SerialExecutor implements Executor {
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    private final Executor pool;
+    private Runnable active;
+
+    SerialExecutor(Executor pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public synchronized void execute(Runnable task) {
+        tasks.add(() -> {
+            try {
+                task.run();
+            } finally {
+                scheduleNext();
+            }
+        });
+        if (active == null) scheduleNext();
+    }
+
+    private synchronized void scheduleNext() {
+        if ((active = tasks.poll()) != null) pool.execute(active);
+    }
+}
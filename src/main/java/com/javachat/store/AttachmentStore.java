@@ -0,0 +1,135 @@
+package com.javachat.store;
+
+import com.javachat.metrics.Metrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.util.HexFormat;
+import java.util.concurrent.atomic.LongAdder;
+
+// Content-addressed file store: every attachment lives once under its SHA-256 digest,
+// at <root>/<first two hex chars>/<digest>. Sending or receiving the same file again
+// finds the existing copy instead of writing a new one. Files are deleted by
+// collectGarbage() once no message in the database references them.
+public class AttachmentStore {
+    private static final LongAdder BYTES_WRITTEN = Metrics.counter("attachments.storage.bytesWritten");
+    private static final LongAdder BYTES_DEDUPLICATED = Metrics.counter("attachments.storage.bytesDeduplicated");
+    private static final LongAdder FILES_DELETED = Metrics.counter("attachments.storage.filesDeleted");
+
+    private final Path root;
+
+    public AttachmentStore(Path root) {
+        this.root = root;
+    }
+
+    // Hex SHA-256 of the given bytes
+    public static String digest(byte[] bytes) {
+        return HexFormat.of().formatHex(newDigest().digest(bytes));
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e); // Every JDK must provide it
+        }
+    }
+
+    // Digests come from the network, so only accept exactly 64 lowercase hex chars
+    public static boolean isValidDigest(String digest) {
+        if (digest == null || digest.length() != 64) return false;
+        for (int i = 0; i < digest.length(); i++) {
+            char c = digest.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) return false;
+        }
+        return true;
+    }
+
+    public Path pathFor(String digest) {
+        if (!isValidDigest(digest)) throw new IllegalArgumentException("Invalid digest: " + digest);
+        return root.resolve(digest.substring(0, 2)).resolve(digest);
+    }
+
+    public boolean contains(String digest) {
+        return isValidDigest(digest) && Files.isRegularFile(pathFor(digest));
+    }
+
+    // Content type of a stored file, sniffed from its first bytes since stored files have no name;
+    // "application/octet-stream" when unknown or missing
+    public String contentType(String digest) {
+        byte[] head = new byte[8];
+        int n;
+        try (InputStream in = Files.newInputStream(pathFor(digest))) {
+            n = in.readNBytes(head, 0, head.length);
+        } catch (IOException | IllegalArgumentException e) {
+            return "application/octet-stream";
+        }
+        if (n >= 8 && (head[0] & 0xFF) == 0x89 && head[1] == 'P' && head[2] == 'N' && head[3] == 'G') return "image/png";
+        if (n >= 3 && (head[0] & 0xFF) == 0xFF && (head[1] & 0xFF) == 0xD8 && (head[2] & 0xFF) == 0xFF) return "image/jpeg";
+        if (n >= 6 && head[0] == 'G' && head[1] == 'I' && head[2] == 'F' && head[3] == '8') return "image/gif";
+        if (n >= 2 && head[0] == 'B' && head[1] == 'M') return "image/bmp";
+        return "application/octet-stream";
+    }
+
+    public boolean isImage(String digest) {
+        return contentType(digest).startsWith("image/");
+    }
+
+    // Stores bytes under their digest and returns the digest
+    public String put(byte[] bytes) throws IOException {
+        String digest = digest(bytes);
+        synchronized (this) {
+            Path target = pathFor(digest);
+            if (Files.exists(target)) {
+                BYTES_DEDUPLICATED.add(bytes.length);
+                return digest;
+            }
+            Files.createDirectories(target.getParent());
+            Path temp = Files.createTempFile(target.getParent(), digest, ".part");
+            Files.write(temp, bytes);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            BYTES_WRITTEN.add(bytes.length);
+        }
+        return digest;
+    }
+
+    // Moves an already hashed temp file into the store; the temp file is gone afterwards
+    public Path putFile(Path temp, String digest) throws IOException {
+        long size = Files.size(temp);
+        synchronized (this) {
+            Path target = pathFor(digest);
+            if (Files.exists(target)) {
+                Files.delete(temp);
+                BYTES_DEDUPLICATED.add(size);
+            } else {
+                Files.createDirectories(target.getParent());
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+                BYTES_WRITTEN.add(size);
+            }
+            return target;
+        }
+    }
+
+    // Deletes files whose reference count dropped to zero; returns how many were removed
+    public int collectGarbage(MessageStore messages) throws SQLException {
+        int deleted = 0;
+        for (String digest : messages.unreferencedAttachments()) {
+            synchronized (this) {
+                if (!messages.deleteAttachment(digest) || !isValidDigest(digest)) continue;
+                try {
+                    if (Files.deleteIfExists(pathFor(digest))) deleted++;
+                } catch (IOException e) {
+                    System.err.println("Error deleting attachment " + digest + ": " + e.getMessage());
+                }
+            }
+        }
+        FILES_DELETED.add(deleted);
+        return deleted;
+    }
+}
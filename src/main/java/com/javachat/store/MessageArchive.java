@@ -0,0 +1,166 @@
+package com.javachat.store;
+
+import com.javachat.store.MessageStore.MessageRow;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Gzip-compressed archive of expired messages.
+// Every retention batch becomes one messages-<time>-<source>-<first id>-<last id>.tsv.gz file with
+// one row per line: id, conversation, sender, timestamp, attachment, message (tabs, newlines and
+// backslashes escaped). <time> is the oldest message's timestamp and the ids are zero-padded, so
+// file names sort oldest first, and the name depends only on the batch: a batch archived again
+// after a crash before its rows were deleted finds its file already there.
+// Archives are only read when someone searches them.
+public class MessageArchive {
+    private static final int TIME_DIGITS = 17; // yyyyMMddHHmmssSSS
+    private static final int ID_DIGITS = 19;   // Long.MAX_VALUE
+    private static final String PREFIX = "messages-";
+    private static final String SUFFIX = ".tsv.gz";
+
+    private final Path dir;
+
+    public MessageArchive(Path dir) {
+        this.dir = dir;
+    }
+
+    // Writes rows from the named database (see MessageStore.name) to an archive file, unless that
+    // batch is already archived; the file is complete before the rows may be deleted
+    public Path write(String source, List<MessageRow> rows) throws IOException {
+        Files.createDirectories(dir);
+        String oldest = null;
+        long firstId = Long.MAX_VALUE;
+        long lastId = Long.MIN_VALUE;
+        for (MessageRow row : rows) {
+            String time = timeKey(row.timestamp());
+            if (oldest == null || time.compareTo(oldest) < 0) oldest = time;
+            firstId = Math.min(firstId, row.id());
+            lastId = Math.max(lastId, row.id());
+        }
+        String name = PREFIX + oldest + "-" + source + "-" + pad(firstId) + "-" + pad(lastId);
+        Path target = dir.resolve(name + SUFFIX);
+        if (Files.exists(target)) return target; // Archived by a run that stopped before deleting
+        Path temp = dir.resolve(name + SUFFIX + ".part");
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(Files.newOutputStream(temp)), StandardCharsets.UTF_8))) {
+            for (MessageRow row : rows) {
+                out.write(row.id() + "\t" + escape(row.conversation()) + "\t" + escape(row.sender()) + "\t"
+                        + escape(row.timestamp()) + "\t" + escape(row.attachment()) + "\t" + escape(row.message()) + "\n");
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING); // Only complete files carry the .tsv.gz name
+        return target;
+    }
+
+    // Archived messages of a conversation (null for all) containing text (null for all), oldest archive first.
+    // A row archived twice, e.g. by overlapping batches around a crash, is returned once.
+    public List<MessageRow> search(String conversation, String text, int limit) throws IOException {
+        List<MessageRow> matches = new ArrayList<>();
+        if (!Files.isDirectory(dir)) return matches;
+        List<Path> files;
+        try (Stream<Path> list = Files.list(dir)) {
+            files = list.filter(p -> p.getFileName().toString().endsWith(SUFFIX)).sorted().toList();
+        }
+        Set<String> seen = new HashSet<>();
+        for (Path file : files) {
+            String source = source(file.getFileName().toString());
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                    new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    MessageRow row = parse(line);
+                    if (row == null) continue;
+                    if (conversation != null && !conversation.equals(row.conversation())) continue;
+                    if (text != null && !row.message().contains(text)) continue;
+                    if (source != null && !seen.add(source + ":" + row.id())) continue;
+                    matches.add(row);
+                    if (matches.size() >= limit) return matches;
+                }
+            }
+        }
+        return matches;
+    }
+
+    // Digits of a SQLite timestamp ("2026-10-19 12:34:56" or with ".123"), padded to TIME_DIGITS
+    private static String timeKey(String timestamp) {
+        String digits = timestamp == null ? "" : timestamp.replaceAll("[^0-9]", "");
+        if (digits.length() > TIME_DIGITS) return digits.substring(0, TIME_DIGITS);
+        return digits + "0".repeat(TIME_DIGITS - digits.length());
+    }
+
+    private static String pad(long id) {
+        String digits = Long.toString(id);
+        return "0".repeat(Math.max(0, ID_DIGITS - digits.length())) + digits;
+    }
+
+    // The source database of an archive file, or null for names written before sources were recorded
+    private static String source(String fileName) {
+        int start = PREFIX.length() + TIME_DIGITS + 1;
+        int end = fileName.length() - SUFFIX.length() - 2 * (ID_DIGITS + 1);
+        return fileName.startsWith(PREFIX) && end > start && fileName.charAt(start - 1) == '-' ? fileName.substring(start, end) : null;
+    }
+
+    private static String escape(String value) {
+        if (value == null) return "\\N";
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String unescape(String value) {
+        if (value.equals("\\N")) return null;
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                sb.append(switch (next) {
+                    case 't' -> '\t';
+                    case 'n' -> '\n';
+                    case 'r' -> '\r';
+                    default -> next;
+                });
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static MessageRow parse(String line) {
+        String[] f = line.split("\t", 6);
+        if (f.length != 6) return null;
+        try {
+            return new MessageRow(Long.parseLong(f[0]), unescape(f[1]), unescape(f[2]), unescape(f[5]), unescape(f[3]), unescape(f[4]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Searches an archive directory from the command line:
+    // java com.javachat.store.MessageArchive <archive dir> [text] [conversation]
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: MessageArchive <archive dir> [text] [conversation]");
+            return;
+        }
+        MessageArchive archive = new MessageArchive(Paths.get(args[0]));
+        for (MessageRow row : archive.search(args.length > 2 ? args[2] : null, args.length > 1 ? args[1] : null, Integer.MAX_VALUE)) {
+            System.out.println("[" + row.timestamp() + "] " + row.conversation() + " / " + row.sender() + " : " + row.message());
+        }
+    }
+}
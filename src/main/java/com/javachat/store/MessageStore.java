@@ -0,0 +1,370 @@
+package com.javachat.store;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// SQLite-backed message history shared by the GUI peers and the headless server.
+// One connection is opened lazily and reused; calls are serialized because SQLite
+// only allows one writer at a time anyway.
+// Messages may reference an attachment by content digest; triggers keep a reference
+// count per digest in the attachments table, so AttachmentStore can delete a file
+// once no message points at it any more.
+public class MessageStore implements AutoCloseable {
+    public static final String DEFAULT_CONVERSATION = "default";
+
+    // Millisecond timestamps keep rows from different databases (shards) in order when merged
+    private static final String INSERT = "INSERT INTO messages (conversation, sender, message, attachment, timestamp) " +
+            "VALUES (?, ?, ?, ?, strftime('%Y-%m-%d %H:%M:%f', 'now'))";
+    private static final String ROW_COLUMNS = "SELECT id, conversation, sender, message, timestamp, attachment FROM messages ";
+
+    private final String url;
+    private Connection conn;
+    private boolean incremental; // Whether free pages can be returned with incremental_vacuum
+
+    public MessageStore(String url) {
+        this.url = url;
+    }
+
+    // Database file name without its directory and extension, e.g. "server_chat" or "server_chat-1"
+    public String name() {
+        String name = url.substring(Math.max(url.lastIndexOf('/'), Math.max(url.lastIndexOf('\\'), url.lastIndexOf(':'))) + 1);
+        return name.endsWith(".db") ? name.substring(0, name.length() - 3) : name;
+    }
+
+    // A stored chat line
+    public record StoredMessage(long id, String sender, String message, String attachment) {}
+
+    // A message to append with saveAll
+    public record NewMessage(String conversation, String sender, String message, String attachment) {}
+
+    // A full row, as handed to the archive by the retention job
+    public record MessageRow(long id, String conversation, String sender, String message, String timestamp, String attachment) {}
+
+    // Creates the tables and triggers if they do not exist yet, upgrading older databases
+    public synchronized void initialize() throws SQLException {
+        try (Statement stmt = connection().createStatement()) {
+            // Freed pages are returned by the retention job in small steps instead of one blocking VACUUM.
+            // A new file takes the mode for free; an existing one keeps its mode until it is migrated
+            // with main(), because switching it rewrites the whole file under an exclusive lock.
+            long mode = queryLong(stmt, "PRAGMA auto_vacuum");
+            if (mode != 2 && queryLong(stmt, "SELECT count(*) FROM sqlite_master") == 0) {
+                stmt.execute("PRAGMA auto_vacuum = INCREMENTAL");
+                mode = queryLong(stmt, "PRAGMA auto_vacuum");
+            }
+            incremental = mode == 2;
+            stmt.execute("PRAGMA journal_mode = WAL"); // Readers are not blocked while a batch is deleted
+            stmt.execute("CREATE TABLE IF NOT EXISTS messages (" +
+                    "id INTEGER PRIMARY KEY AUTOINCREMENT, " +    // Unique ID for each message
+                    "sender TEXT NOT NULL, " +                    // Sender of the message (e.g., "Me" or "Client")
+                    "message TEXT NOT NULL, " +                   // The message content
+                    "timestamp DATETIME DEFAULT CURRENT_TIMESTAMP, " + // Auto-set timestamp (still stored but not displayed)
+                    "attachment TEXT, " +                         // Content digest of an attached file, if any
+                    "conversation TEXT NOT NULL DEFAULT '" + DEFAULT_CONVERSATION + "')"); // Room or peer the message belongs to
+            if (!hasColumn(stmt, "messages", "attachment")) {
+                stmt.execute("ALTER TABLE messages ADD COLUMN attachment TEXT"); // Databases from before attachments
+            }
+            if (!hasColumn(stmt, "messages", "conversation")) { // Databases from before retention
+                stmt.execute("ALTER TABLE messages ADD COLUMN conversation TEXT NOT NULL DEFAULT '" + DEFAULT_CONVERSATION + "'");
+            }
+            stmt.execute("CREATE INDEX IF NOT EXISTS messages_conversation ON messages (conversation, id)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS messages_timestamp ON messages (timestamp)");
+            stmt.execute("CREATE TABLE IF NOT EXISTS attachments (" +
+                    "digest TEXT PRIMARY KEY, " +                 // SHA-256 of the file content
+                    "refs INTEGER NOT NULL DEFAULT 0)");          // Number of messages referencing it
+            stmt.execute("CREATE TRIGGER IF NOT EXISTS attachment_ref_insert AFTER INSERT ON messages " +
+                    "WHEN NEW.attachment IS NOT NULL BEGIN " +
+                    "INSERT OR IGNORE INTO attachments (digest) VALUES (NEW.attachment); " +
+                    "UPDATE attachments SET refs = refs + 1 WHERE digest = NEW.attachment; END");
+            stmt.execute("CREATE TRIGGER IF NOT EXISTS attachment_ref_update AFTER UPDATE OF attachment ON messages BEGIN " +
+                    "UPDATE attachments SET refs = refs - 1 WHERE digest = OLD.attachment; " +
+                    "INSERT OR IGNORE INTO attachments (digest) SELECT NEW.attachment WHERE NEW.attachment IS NOT NULL; " +
+                    "UPDATE attachments SET refs = refs + 1 WHERE digest = NEW.attachment; END");
+            stmt.execute("CREATE TRIGGER IF NOT EXISTS attachment_ref_delete AFTER DELETE ON messages " +
+                    "WHEN OLD.attachment IS NOT NULL BEGIN " +
+                    "UPDATE attachments SET refs = refs - 1 WHERE digest = OLD.attachment; END");
+        }
+    }
+
+    private static long queryLong(Statement stmt, String sql) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery(sql)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    private static boolean hasColumn(Statement stmt, String table, String column) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                if (column.equalsIgnoreCase(rs.getString("name"))) return true;
+            }
+        }
+        return false;
+    }
+
+    // Appends a message and returns its id
+    public long save(String sender, String message) throws SQLException {
+        return save(sender, message, null);
+    }
+
+    // Appends a message referencing an attachment digest (may be null) and returns its id
+    public long save(String sender, String message, String attachment) throws SQLException {
+        return save(DEFAULT_CONVERSATION, sender, message, attachment);
+    }
+
+    // Appends a message to the given conversation and returns its id
+    public synchronized long save(String conversation, String sender, String message, String attachment) throws SQLException {
+        try (PreparedStatement ps = connection().prepareStatement(INSERT, Statement.RETURN_GENERATED_KEYS)) {
+            return insert(ps, new NewMessage(conversation, sender, message, attachment));
+        }
+    }
+
+    // Appends messages in one transaction, so a batch costs a single commit; returns their ids in order
+    public synchronized long[] saveAll(List<NewMessage> messages) throws SQLException {
+        Connection c = connection();
+        c.setAutoCommit(false);
+        try (PreparedStatement ps = c.prepareStatement(INSERT, Statement.RETURN_GENERATED_KEYS)) {
+            long[] ids = new long[messages.size()];
+            for (int i = 0; i < ids.length; i++) ids[i] = insert(ps, messages.get(i));
+            c.commit();
+            return ids;
+        } catch (SQLException e) {
+            c.rollback();
+            throw e;
+        } finally {
+            c.setAutoCommit(true);
+        }
+    }
+
+    private static long insert(PreparedStatement ps, NewMessage m) throws SQLException {
+        ps.setString(1, m.conversation());
+        ps.setString(2, m.sender());
+        ps.setString(3, m.message());
+        ps.setString(4, m.attachment());
+        ps.executeUpdate();
+        try (ResultSet keys = ps.getGeneratedKeys()) {
+            return keys.next() ? keys.getLong(1) : -1;
+        }
+    }
+
+    // Messages from the given senders, oldest first
+    public synchronized List<StoredMessage> history(String... senders) throws SQLException {
+        StringBuilder sql = new StringBuilder("SELECT id, sender, message, attachment FROM messages WHERE sender IN (");
+        for (int i = 0; i < senders.length; i++) sql.append(i == 0 ? "?" : ", ?");
+        sql.append(") ORDER BY id");
+        List<StoredMessage> messages = new ArrayList<>();
+        try (PreparedStatement ps = connection().prepareStatement(sql.toString())) {
+            for (int i = 0; i < senders.length; i++) ps.setString(i + 1, senders[i]);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) messages.add(new StoredMessage(rs.getLong(1), rs.getString(2), rs.getString(3), rs.getString(4)));
+            }
+        }
+        return messages;
+    }
+
+    // Newest messages of one conversation, newest first
+    public synchronized List<MessageRow> recentIn(String conversation, int limit) throws SQLException {
+        try (PreparedStatement ps = connection().prepareStatement(ROW_COLUMNS + "WHERE conversation = ? ORDER BY id DESC LIMIT ?")) {
+            ps.setString(1, conversation);
+            ps.setInt(2, limit);
+            return rows(ps);
+        }
+    }
+
+    // Newest messages of all conversations, newest first
+    public synchronized List<MessageRow> recent(int limit) throws SQLException {
+        try (PreparedStatement ps = connection().prepareStatement(ROW_COLUMNS + "ORDER BY id DESC LIMIT ?")) {
+            ps.setInt(1, limit);
+            return rows(ps);
+        }
+    }
+
+    // Newest messages containing the given text, newest first
+    public synchronized List<MessageRow> search(String text, int limit) throws SQLException {
+        try (PreparedStatement ps = connection().prepareStatement(ROW_COLUMNS + "WHERE message LIKE ? ESCAPE '\\' ORDER BY id DESC LIMIT ?")) {
+            ps.setString(1, "%" + text.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%");
+            ps.setInt(2, limit);
+            return rows(ps);
+        }
+    }
+
+    public synchronized long count() throws SQLException {
+        try (Statement stmt = connection().createStatement()) {
+            return queryLong(stmt, "SELECT COUNT(*) FROM messages");
+        }
+    }
+
+    // Links an already saved message to an attachment, e.g. once a legacy transfer has been hashed
+    public synchronized void attach(long messageId, String digest) throws SQLException {
+        try (PreparedStatement ps = connection().prepareStatement("UPDATE messages SET attachment = ? WHERE id = ?")) {
+            ps.setString(1, digest);
+            ps.setLong(2, messageId);
+            ps.executeUpdate();
+        }
+    }
+
+    // Digests no message refers to any more
+    public synchronized List<String> unreferencedAttachments() throws SQLException {
+        List<String> digests = new ArrayList<>();
+        try (Statement stmt = connection().createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT digest FROM attachments WHERE refs <= 0")) {
+            while (rs.next()) digests.add(rs.getString(1));
+        }
+        return digests;
+    }
+
+    // Forgets an attachment, unless a message started referencing it again meanwhile
+    public synchronized boolean deleteAttachment(String digest) throws SQLException {
+        try (PreparedStatement ps = connection().prepareStatement("DELETE FROM attachments WHERE digest = ? AND refs <= 0")) {
+            ps.setString(1, digest);
+            return ps.executeUpdate() > 0;
+        }
+    }
+
+    // Deletes every message
+    public synchronized void clear() throws SQLException {
+        try (Statement stmt = connection().createStatement()) {
+            stmt.execute("DELETE FROM messages");
+        }
+    }
+
+    // Retention support: everything below works in small batches so no call holds the write lock for long
+
+    // Oldest messages with a timestamp before now minus maxAgeDays
+    public synchronized List<MessageRow> olderThan(int maxAgeDays, int limit) throws SQLException {
+        try (PreparedStatement ps = connection().prepareStatement(ROW_COLUMNS + "WHERE timestamp < datetime('now', ?) ORDER BY id LIMIT ?")) {
+            ps.setString(1, "-" + maxAgeDays + " days");
+            ps.setInt(2, limit);
+            return rows(ps);
+        }
+    }
+
+    // Conversations holding more than maxRows messages, with how many rows they are over
+    public synchronized Map<String, Long> conversationsOver(long maxRows) throws SQLException {
+        Map<String, Long> excess = new LinkedHashMap<>();
+        try (PreparedStatement ps = connection().prepareStatement(
+                "SELECT conversation, COUNT(*) FROM messages GROUP BY conversation HAVING COUNT(*) > ?")) {
+            ps.setLong(1, maxRows);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) excess.put(rs.getString(1), rs.getLong(2) - maxRows);
+            }
+        }
+        return excess;
+    }
+
+    // Oldest messages of one conversation
+    public synchronized List<MessageRow> oldestIn(String conversation, int limit) throws SQLException {
+        try (PreparedStatement ps = connection().prepareStatement(ROW_COLUMNS + "WHERE conversation = ? ORDER BY id LIMIT ?")) {
+            ps.setString(1, conversation);
+            ps.setInt(2, limit);
+            return rows(ps);
+        }
+    }
+
+    // Oldest messages with an id up to maxId, used to clear the history in batches
+    public synchronized List<MessageRow> upTo(long maxId, int limit) throws SQLException {
+        try (PreparedStatement ps = connection().prepareStatement(ROW_COLUMNS + "WHERE id <= ? ORDER BY id LIMIT ?")) {
+            ps.setLong(1, maxId);
+            ps.setInt(2, limit);
+            return rows(ps);
+        }
+    }
+
+    public synchronized long maxId() throws SQLException {
+        try (Statement stmt = connection().createStatement()) {
+            return queryLong(stmt, "SELECT COALESCE(MAX(id), 0) FROM messages");
+        }
+    }
+
+    // Deletes the given rows in one short transaction
+    public synchronized void delete(List<MessageRow> rows) throws SQLException {
+        Connection c = connection();
+        c.setAutoCommit(false);
+        try (PreparedStatement ps = c.prepareStatement("DELETE FROM messages WHERE id = ?")) {
+            for (MessageRow row : rows) {
+                ps.setLong(1, row.id());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+            c.commit();
+        } catch (SQLException e) {
+            c.rollback();
+            throw e;
+        } finally {
+            c.setAutoCommit(true);
+        }
+    }
+
+    // Returns up to maxPages free pages to the file system; returns how many free pages are left.
+    // Databases not yet migrated to incremental auto-vacuum keep their free pages for reuse and report 0.
+    public synchronized long incrementalVacuum(int maxPages) throws SQLException {
+        if (!incremental) return 0;
+        try (Statement stmt = connection().createStatement()) {
+            stmt.execute("PRAGMA incremental_vacuum(" + maxPages + ")");
+            return queryLong(stmt, "PRAGMA freelist_count");
+        }
+    }
+
+    // Switches an existing database to incremental auto-vacuum. This runs a full VACUUM, which rewrites
+    // the file under an exclusive lock, so only do it while nothing else uses the database.
+    public synchronized void enableIncrementalVacuum() throws SQLException {
+        try (Statement stmt = connection().createStatement()) {
+            stmt.execute("PRAGMA auto_vacuum = INCREMENTAL");
+            stmt.execute("VACUUM");
+            incremental = queryLong(stmt, "PRAGMA auto_vacuum") == 2;
+        }
+    }
+
+    // One-off migration of databases created before retention, with the chat stopped:
+    // java -cp <classpath> com.javachat.store.MessageStore <database file>...
+    public static void main(String[] args) throws SQLException {
+        if (args.length == 0) {
+            System.err.println("Usage: MessageStore <database file>...");
+            return;
+        }
+        for (String file : args) {
+            try (MessageStore store = new MessageStore("jdbc:sqlite:" + file)) {
+                store.initialize();
+                if (store.incremental) {
+                    System.out.println(file + ": already uses incremental auto-vacuum");
+                } else {
+                    long start = System.nanoTime();
+                    store.enableIncrementalVacuum();
+                    System.out.println(file + ": switched to incremental auto-vacuum in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+                }
+            }
+        }
+    }
+
+    private static List<MessageRow> rows(PreparedStatement ps) throws SQLException {
+        List<MessageRow> rows = new ArrayList<>();
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                rows.add(new MessageRow(rs.getLong(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getString(5), rs.getString(6)));
+            }
+        }
+        return rows;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (conn == null) return;
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            System.err.println("Error closing database: " + e.getMessage());
+        }
+        conn = null;
+    }
+
+    private Connection connection() throws SQLException {
+        if (conn == null || conn.isClosed()) conn = DriverManager.getConnection(url);
+        return conn;
+    }
+}
@@ -0,0 +1,130 @@
+package com.javachat.store;
+
+import com.javachat.metrics.Metrics;
+import com.javachat.store.MessageStore.MessageRow;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Background data lifecycle for one message database.
+// Expired messages are archived and deleted in small batches, each in its own short
+// transaction with a pause in between, so the chat never waits long for the write lock.
+// Afterwards unreferenced attachments are collected and free pages are returned with
+// incremental VACUUM, again a few pages at a time.
+public class RetentionJob {
+    private static final int VACUUM_PAGES_PER_STEP = 256;
+
+    private static final LongAdder ARCHIVED = Metrics.counter("retention.archived.messages");
+    private static final LongAdder DELETED = Metrics.counter("retention.deleted.messages");
+
+    private final MessageStore store;
+    private final AttachmentStore attachments; // May be null, e.g. on the headless server
+    private final MessageArchive archive;
+    private final RetentionPolicy policy;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "chat-retention");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    public RetentionJob(MessageStore store, AttachmentStore attachments, MessageArchive archive, RetentionPolicy policy) {
+        this.store = store;
+        this.attachments = attachments;
+        this.archive = archive;
+        this.policy = policy;
+    }
+
+    // Runs the policy periodically, starting shortly after startup
+    public void start() {
+        if (!policy.enabled()) return;
+        executor.scheduleWithFixedDelay(this::runSafely, 1, policy.intervalMinutes(), TimeUnit.MINUTES);
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    // Deletes the whole history in the background without archiving it; returns the number of rows removed
+    public CompletableFuture<Long> clearAll() {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                long maxId = store.maxId(); // Messages arriving meanwhile are kept
+                long removed = 0;
+                List<MessageRow> batch;
+                while (!(batch = store.upTo(maxId, policy.batchSize())).isEmpty()) {
+                    store.delete(batch);
+                    DELETED.add(batch.size());
+                    removed += batch.size();
+                    pause();
+                }
+                compact();
+                return removed;
+            } catch (SQLException | InterruptedException e) {
+                throw new IllegalStateException("Error clearing chat history: " + e.getMessage(), e);
+            }
+        }, executor);
+    }
+
+    // One full retention pass; returns the number of archived messages
+    public long runOnce() throws SQLException, IOException, InterruptedException {
+        long archived = 0;
+        if (policy.maxAgeDays() > 0) {
+            List<MessageRow> batch;
+            while (!(batch = store.olderThan(policy.maxAgeDays(), policy.batchSize())).isEmpty()) {
+                archived += archiveAndDelete(batch);
+            }
+        }
+        if (policy.maxRowsPerConversation() > 0) {
+            for (Map.Entry<String, Long> entry : store.conversationsOver(policy.maxRowsPerConversation()).entrySet()) {
+                long excess = entry.getValue();
+                while (excess > 0) {
+                    List<MessageRow> batch = store.oldestIn(entry.getKey(), (int) Math.min(excess, policy.batchSize()));
+                    if (batch.isEmpty()) break;
+                    int removed = archiveAndDelete(batch);
+                    archived += removed;
+                    excess -= removed;
+                }
+            }
+        }
+        if (archived > 0) {
+            compact();
+            System.out.println("Retention archived " + archived + " message(s)");
+        }
+        return archived;
+    }
+
+    private void runSafely() {
+        try {
+            runOnce();
+        } catch (Exception e) {
+            System.err.println("Retention job failed: " + e.getMessage());
+        }
+    }
+
+    private int archiveAndDelete(List<MessageRow> batch) throws SQLException, IOException, InterruptedException {
+        archive.write(store.name(), batch); // Written and closed before anything is deleted
+        store.delete(batch);
+        ARCHIVED.add(batch.size());
+        DELETED.add(batch.size());
+        pause();
+        return batch.size();
+    }
+
+    // Drops attachments nobody references any more and returns free pages a few at a time
+    private void compact() throws SQLException, InterruptedException {
+        if (attachments != null) attachments.collectGarbage(store);
+        while (store.incrementalVacuum(VACUUM_PAGES_PER_STEP) > 0) pause();
+    }
+
+    private void pause() throws InterruptedException {
+        if (policy.pauseMillis() > 0) Thread.sleep(policy.pauseMillis());
+    }
+}
@@ -0,0 +1,31 @@
+package com.javachat.store;
+
+import com.javachat.config.ChatConfig;
+
+// How long messages are kept and how the retention job paces itself
+public record RetentionPolicy(
+        int maxAgeDays,               // Messages older than this are archived; 0 keeps them forever
+        long maxRowsPerConversation,  // Older messages beyond this count are archived; 0 means no limit
+        int batchSize,                // Rows archived and deleted per transaction
+        long pauseMillis,             // Pause between batches so other writers get the lock
+        long intervalMinutes) {       // How often the job runs
+
+    public static final String MAX_AGE_DAYS = "chat.retention.maxAgeDays";
+    public static final String MAX_ROWS = "chat.retention.maxRowsPerConversation";
+    public static final String BATCH_SIZE = "chat.retention.batchSize";
+    public static final String PAUSE_MS = "chat.retention.pauseMs";
+    public static final String INTERVAL_MINUTES = "chat.retention.intervalMinutes";
+
+    public static RetentionPolicy from(ChatConfig config) {
+        return new RetentionPolicy(
+                config.getInt(MAX_AGE_DAYS, 0),
+                config.getLong(MAX_ROWS, 0),
+                Math.max(1, config.getInt(BATCH_SIZE, 500)),
+                config.getLong(PAUSE_MS, 50),
+                Math.max(1, config.getLong(INTERVAL_MINUTES, 60)));
+    }
+
+    public boolean enabled() {
+        return maxAgeDays > 0 || maxRowsPerConversation > 0;
+    }
+}
@@ -0,0 +1,236 @@
+package com.javachat.store;
+
+import com.javachat.config.ChatConfig;
+import com.javachat.metrics.Metrics;
+import com.javachat.store.MessageStore.MessageRow;
+import com.javachat.store.MessageStore.NewMessage;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.LongAdder;
+
+// Message history split over several SQLite files so persistence can use more than one core.
+// A conversation always lives in the shard picked by hashing its name. Every shard has its own
+// writer thread that commits whatever has queued up in one transaction, so a busy shard pays
+// one commit per batch instead of one per message, and shards never wait for each other.
+// Queries about one conversation go to its shard; global queries run on all shards in parallel
+// and are merged by timestamp. Saves still in a writer queue are not visible to queries yet.
+// The shard count decides where conversations live, so keep it fixed for a set of files.
+public class ShardedMessageStore implements AutoCloseable {
+    public static final String SHARDS = "chat.store.shards";
+
+    static final int MAX_BATCH = 512; // Messages per transaction
+
+    private static final LongAdder SAVED = Metrics.counter("store.saved.messages");
+    private static final LongAdder BATCHES = Metrics.counter("store.batches");
+
+    // Newest first; ids break ties inside one shard
+    private static final Comparator<MessageRow> NEWEST_FIRST = Comparator.comparing(MessageRow::timestamp)
+            .thenComparingLong(MessageRow::id)
+            .reversed();
+
+    private final Shard[] shards;
+    private final ExecutorService readers; // Runs the per-shard parts of global queries
+    // Saves hold the read lock while queuing and close() takes the write lock to queue STOP,
+    // so nothing can be queued behind STOP where no writer would ever commit it
+    private final ReadWriteLock closing = new ReentrantReadWriteLock();
+    private boolean closed; // Guarded by closing
+
+    // Shard 0 uses the given URL so a single-shard store is the plain database; shard i adds "-i"
+    public ShardedMessageStore(String url, int shardCount) {
+        if (shardCount < 1) throw new IllegalArgumentException("At least one shard is needed");
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) shards[i] = new Shard(i, new MessageStore(i == 0 ? url : shardUrl(url, i)));
+        this.readers = Executors.newFixedThreadPool(shardCount, r -> {
+            Thread t = new Thread(r, "chat-store-reader");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // The database file name in the configured store directory, split into chat.store.shards files
+    public static ShardedMessageStore open(ChatConfig config, String fileName) {
+        return new ShardedMessageStore(config.dbUrl(fileName), Math.max(1, config.getInt(SHARDS, 1)));
+    }
+
+    private static String shardUrl(String url, int index) {
+        int dot = url.lastIndexOf('.');
+        int slash = Math.max(url.lastIndexOf('/'), url.lastIndexOf('\\'));
+        return dot > slash ? url.substring(0, dot) + "-" + index + url.substring(dot) : url + "-" + index;
+    }
+
+    // Creates the tables in every shard and starts the writers
+    public void initialize() throws SQLException {
+        for (Shard shard : shards) shard.store.initialize();
+        for (Shard shard : shards) shard.writer.start();
+    }
+
+    public int shardCount() {
+        return shards.length;
+    }
+
+    // The underlying stores, e.g. for one retention job per shard
+    public List<MessageStore> shards() {
+        List<MessageStore> stores = new ArrayList<>(shards.length);
+        for (Shard shard : shards) stores.add(shard.store);
+        return stores;
+    }
+
+    public int shardFor(String conversation) {
+        int h = conversation.hashCode();
+        return Math.floorMod(h ^ (h >>> 16), shards.length);
+    }
+
+    // Queues a message for its shard's writer; completes with the id within that shard,
+    // or exceptionally if the store is already closed
+    public CompletableFuture<Long> save(String conversation, String sender, String message, String attachment) {
+        PendingSave save = new PendingSave(new NewMessage(conversation, sender, message, attachment), new CompletableFuture<>());
+        closing.readLock().lock();
+        try {
+            if (closed) {
+                System.err.println("Error saving message: the message store is closed");
+                save.id.completeExceptionally(new SQLException("Message store is closed"));
+            } else {
+                shards[shardFor(conversation)].queue.add(save);
+            }
+        } finally {
+            closing.readLock().unlock();
+        }
+        return save.id;
+    }
+
+    // Newest messages of one conversation, oldest first
+    public List<MessageRow> history(String conversation, int limit) throws SQLException {
+        List<MessageRow> rows = new ArrayList<>(shards[shardFor(conversation)].store.recentIn(conversation, limit));
+        return oldestFirst(rows);
+    }
+
+    // Newest messages across all conversations, oldest first
+    public List<MessageRow> recent(int limit) {
+        return merge(limit, store -> store.recent(limit));
+    }
+
+    // Newest messages containing text across all conversations, oldest first
+    public List<MessageRow> search(String text, int limit) {
+        return merge(limit, store -> store.search(text, limit));
+    }
+
+    public long count() {
+        long total = 0;
+        for (CompletableFuture<Long> part : fanOut(MessageStore::count)) total += part.join();
+        return total;
+    }
+
+    // Runs a query on every shard in parallel and keeps the newest limit rows
+    private List<MessageRow> merge(int limit, Query<List<MessageRow>> query) {
+        List<MessageRow> rows = new ArrayList<>();
+        for (CompletableFuture<List<MessageRow>> part : fanOut(query)) rows.addAll(part.join());
+        rows.sort(NEWEST_FIRST);
+        return oldestFirst(new ArrayList<>(rows.subList(0, Math.min(limit, rows.size()))));
+    }
+
+    private <T> List<CompletableFuture<T>> fanOut(Query<T> query) {
+        List<CompletableFuture<T>> parts = new ArrayList<>(shards.length);
+        for (Shard shard : shards) {
+            parts.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return query.run(shard.store);
+                } catch (SQLException e) {
+                    throw new CompletionException(e);
+                }
+            }, readers));
+        }
+        return parts;
+    }
+
+    private static List<MessageRow> oldestFirst(List<MessageRow> newestFirst) {
+        Collections.reverse(newestFirst);
+        return newestFirst;
+    }
+
+    // Lets the writers commit what is queued, then closes every shard
+    @Override
+    public void close() {
+        closing.writeLock().lock();
+        try {
+            if (closed) return;
+            closed = true;
+            for (Shard shard : shards) shard.queue.add(PendingSave.STOP);
+        } finally {
+            closing.writeLock().unlock();
+        }
+        for (Shard shard : shards) {
+            try {
+                shard.writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            shard.store.close();
+        }
+        readers.shutdown();
+    }
+
+    private interface Query<T> {
+        T run(MessageStore store) throws SQLException;
+    }
+
+    private record PendingSave(NewMessage message, CompletableFuture<Long> id) {
+        static final PendingSave STOP = new PendingSave(null, null); // Queued by close()
+    }
+
+    // One database file and the thread that writes to it
+    private static final class Shard {
+        final MessageStore store;
+        final BlockingQueue<PendingSave> queue = new LinkedBlockingQueue<>();
+        final Thread writer;
+
+        Shard(int index, MessageStore store) {
+            this.store = store;
+            this.writer = new Thread(this::writeLoop, "chat-store-writer-" + index);
+            this.writer.setDaemon(true);
+        }
+
+        // Takes what has queued up, up to MAX_BATCH messages, and commits it at once
+        private void writeLoop() {
+            List<PendingSave> batch = new ArrayList<>(MAX_BATCH);
+            List<NewMessage> messages = new ArrayList<>(MAX_BATCH);
+            while (true) {
+                try {
+                    batch.add(queue.take());
+                } catch (InterruptedException e) {
+                    return;
+                }
+                queue.drainTo(batch, MAX_BATCH - 1);
+                boolean stop = batch.remove(PendingSave.STOP);
+                for (PendingSave save : batch) messages.add(save.message());
+                if (!messages.isEmpty()) commit(batch, messages);
+                batch.clear();
+                messages.clear();
+                if (stop) return;
+            }
+        }
+
+        private void commit(List<PendingSave> batch, List<NewMessage> messages) {
+            try {
+                long[] ids = store.saveAll(messages);
+                for (int i = 0; i < ids.length; i++) batch.get(i).id().complete(ids[i]);
+                SAVED.add(ids.length);
+                BATCHES.increment();
+            } catch (SQLException e) {
+                System.err.println("Error saving messages: " + e.getMessage());
+                for (PendingSave save : batch) save.id().completeExceptionally(e);
+            }
+        }
+    }
+}
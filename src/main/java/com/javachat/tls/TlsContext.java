@@ -0,0 +1,112 @@
+package com.javachat.tls;
+
+import com.javachat.config.ChatConfig;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+// TLS settings for the chat transport, built from the chat.tls.* keys.
+// Keep one instance per process: the client session cache lives in it, and that cache is what
+// lets a reconnect resume the session (TLS 1.3 session tickets, enabled by default in the JDK)
+// instead of running a full handshake with certificate checks again.
+// Clients check that the server's certificate was issued for the host name they connect to,
+// so a certificate for some other host is rejected even if the trust store vouches for it.
+public class TlsContext {
+    public static final String ENABLED = "chat.tls.enabled";
+    public static final String KEY_STORE = "chat.tls.keyStore";                  // PKCS12 or JKS with our key pair
+    public static final String KEY_STORE_PASSWORD = "chat.tls.keyStorePassword";
+    public static final String TRUST_STORE = "chat.tls.trustStore";              // Defaults to the JDK's cacerts
+    public static final String TRUST_STORE_PASSWORD = "chat.tls.trustStorePassword";
+    public static final String PROTOCOLS = "chat.tls.protocols";
+    public static final String SESSION_CACHE_SIZE = "chat.tls.sessionCacheSize";
+    public static final String SESSION_TIMEOUT_SECONDS = "chat.tls.sessionTimeoutSeconds";
+
+    private final SSLContext context;
+    private final String[] protocols;
+
+    public TlsContext(SSLContext context, String[] protocols) {
+        this.context = context;
+        this.protocols = protocols;
+    }
+
+    // The configured context, or null when TLS is disabled
+    public static TlsContext fromConfig(ChatConfig config) throws GeneralSecurityException, IOException {
+        if (!config.getBoolean(ENABLED, false)) return null;
+
+        KeyManagerFactory keys = null;
+        String keyStore = config.getString(KEY_STORE, null);
+        if (keyStore != null) {
+            char[] password = config.getString(KEY_STORE_PASSWORD, "").toCharArray();
+            keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keys.init(KeyStore.getInstance(new File(keyStore), password), password);
+        }
+        TrustManagerFactory trust = null;
+        String trustStore = config.getString(TRUST_STORE, null);
+        if (trustStore != null) {
+            char[] password = config.getString(TRUST_STORE_PASSWORD, "").toCharArray();
+            trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trust.init(KeyStore.getInstance(new File(trustStore), password));
+        }
+
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keys == null ? null : keys.getKeyManagers(), trust == null ? null : trust.getTrustManagers(), null);
+        for (SSLSessionContext sessions : new SSLSessionContext[]{context.getServerSessionContext(), context.getClientSessionContext()}) {
+            sessions.setSessionCacheSize(config.getInt(SESSION_CACHE_SIZE, 10_000));
+            sessions.setSessionTimeout(config.getInt(SESSION_TIMEOUT_SECONDS, 24 * 60 * 60));
+        }
+        return new TlsContext(context, config.getString(PROTOCOLS, "TLSv1.3,TLSv1.2").split(","));
+    }
+
+    // Engine for one accepted connection of the non-blocking server
+    public SSLEngine serverEngine() {
+        SSLEngine engine = context.createSSLEngine();
+        engine.setUseClientMode(false);
+        engine.setEnabledProtocols(protocols);
+        return engine;
+    }
+
+    // Engine for an outgoing connection; host and port key the session cache, and host must match the certificate
+    public SSLEngine clientEngine(String host, int port) {
+        SSLEngine engine = context.createSSLEngine(host, port);
+        engine.setUseClientMode(true);
+        engine.setEnabledProtocols(protocols);
+        engine.setSSLParameters(verifyHost(engine.getSSLParameters()));
+        return engine;
+    }
+
+    // Layers TLS over an accepted blocking socket and completes the handshake
+    public SSLSocket accept(Socket socket) throws IOException {
+        SSLSocket ssl = (SSLSocket) context.getSocketFactory().createSocket(socket, null, true);
+        ssl.setUseClientMode(false);
+        ssl.setEnabledProtocols(protocols);
+        ssl.startHandshake();
+        return ssl;
+    }
+
+    // Layers TLS over a connected blocking socket and completes the handshake, resuming a cached session if possible.
+    // Fails with an SSLHandshakeException when the certificate does not name host.
+    public SSLSocket connect(Socket socket, String host, int port) throws IOException {
+        SSLSocket ssl = (SSLSocket) context.getSocketFactory().createSocket(socket, host, port, true);
+        ssl.setUseClientMode(true);
+        ssl.setEnabledProtocols(protocols);
+        ssl.setSSLParameters(verifyHost(ssl.getSSLParameters()));
+        ssl.startHandshake();
+        return ssl;
+    }
+
+    // Checks the peer's host name against its certificate the way HTTPS does (RFC 2818)
+    private static SSLParameters verifyHost(SSLParameters parameters) {
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        return parameters;
+    }
+}
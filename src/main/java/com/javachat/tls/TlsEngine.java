@@ -0,0 +1,139 @@
+package com.javachat.tls;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+// Drives an SSLEngine over a non-blocking channel.
+// The connection reads ciphertext straight into inbound() and calls unwrap(); plaintext is
+// handed out through a caller-owned scratch buffer (one per I/O loop), so only the two
+// record buffers below are per connection and nothing is allocated per record.
+// Small writes are wrapped into the same outbound buffer and reach the socket together.
+// Not thread-safe: use it from the connection's I/O loop only.
+public final class TlsEngine {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    // Receives plaintext; the buffer is only valid during the call
+    public interface PlaintextSink {
+        void accept(ByteBuffer plaintext) throws IOException;
+    }
+
+    private final SSLEngine engine;
+    private ByteBuffer netIn;  // Records read but not yet unwrapped, in fill mode
+    private ByteBuffer netOut; // Records wrapped but not yet written, in fill mode
+
+    public TlsEngine(SSLEngine engine) throws SSLException {
+        this.engine = engine;
+        int packetSize = engine.getSession().getPacketBufferSize();
+        this.netIn = ByteBuffer.allocate(packetSize);
+        this.netOut = ByteBuffer.allocate(packetSize);
+        engine.beginHandshake();
+    }
+
+    // Buffer the connection reads ciphertext into
+    public ByteBuffer inbound() {
+        return netIn;
+    }
+
+    public boolean hasBufferedInput() {
+        return netIn.position() > 0;
+    }
+
+    public boolean handshaking() {
+        HandshakeStatus status = engine.getHandshakeStatus();
+        return status != HandshakeStatus.NOT_HANDSHAKING && status != HandshakeStatus.FINISHED;
+    }
+
+    // Unwraps every complete record in inbound(), answering the handshake on the channel as needed.
+    // scratch must hold at least one record of plaintext. Returns false once the peer has closed the session.
+    public boolean unwrap(WritableByteChannel channel, ByteBuffer scratch, PlaintextSink sink) throws IOException {
+        while (true) {
+            SSLEngineResult result;
+            netIn.flip();
+            try {
+                result = engine.unwrap(netIn, scratch.clear());
+            } finally {
+                netIn.compact();
+            }
+            scratch.flip();
+            if (scratch.hasRemaining()) sink.accept(scratch);
+
+            switch (result.getStatus()) {
+                case CLOSED:
+                    return false;
+                case BUFFER_OVERFLOW:
+                    throw new SSLException("Plaintext buffer smaller than a TLS record");
+                case BUFFER_UNDERFLOW:
+                    int packetSize = engine.getSession().getPacketBufferSize();
+                    if (netIn.capacity() < packetSize) netIn = ByteBuffer.allocate(packetSize).put(netIn.flip());
+                    return true; // Wait for the rest of the record
+                default:
+                    break;
+            }
+            HandshakeStatus before = engine.getHandshakeStatus();
+            if (before == HandshakeStatus.NEED_TASK || before == HandshakeStatus.NEED_WRAP) flush(channel);
+            if (result.bytesConsumed() == 0 && result.bytesProduced() == 0 && engine.getHandshakeStatus() == before) {
+                return true; // No progress possible until the peer or the socket moves
+            }
+        }
+    }
+
+    // Wraps as much of app as the handshake state and outbound buffer allow; call flush() afterwards.
+    // Whatever is left in app waits for the handshake to finish or for the socket to drain.
+    public void write(WritableByteChannel channel, ByteBuffer app) throws IOException {
+        while (true) {
+            HandshakeStatus status = engine.getHandshakeStatus();
+            if (status == HandshakeStatus.NEED_TASK) {
+                runDelegatedTasks();
+                continue;
+            }
+            if (status == HandshakeStatus.NEED_UNWRAP || status == HandshakeStatus.NEED_UNWRAP_AGAIN) return;
+            if (status != HandshakeStatus.NEED_WRAP && !app.hasRemaining()) return;
+
+            SSLEngineResult result = engine.wrap(app, netOut);
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED) return;
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                if (!drain(channel)) return; // Socket full
+                int packetSize = engine.getSession().getPacketBufferSize();
+                if (netOut.capacity() < packetSize) netOut = ByteBuffer.allocate(packetSize);
+            }
+        }
+    }
+
+    // Advances the handshake and writes pending records; returns true when nothing is left to write
+    public boolean flush(WritableByteChannel channel) throws IOException {
+        write(channel, EMPTY);
+        return drain(channel);
+    }
+
+    // Sends close_notify if the socket takes it right away
+    public void close(WritableByteChannel channel) {
+        engine.closeOutbound();
+        try {
+            flush(channel);
+        } catch (IOException e) {
+            // The connection is going away anyway
+        }
+    }
+
+    // Handshake steps such as signature checks; cheap enough to run inline with EC keys
+    private void runDelegatedTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) task.run();
+    }
+
+    private boolean drain(WritableByteChannel channel) throws IOException {
+        if (netOut.position() == 0) return true;
+        netOut.flip();
+        try {
+            channel.write(netOut);
+        } finally {
+            netOut.compact();
+        }
+        return netOut.position() == 0;
+    }
+}
@@ -0,0 +1,19 @@
+package com.javachat.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// Time spent classifying a received line and handling its frame
+@Name("com.javachat.MessageDecoded")
+@Label("Message Decoded")
+@Category({"Java Chat", "Messages"})
+@Description("A received line was classified and its frame handled (file offers and contents included)")
+@StackTrace(false)
+public class MessageDecodedEvent extends MessageEvent {
+    @Label("Kind")
+    @Description("text, presence, keepalive, transfer, exit or dropped")
+    public String kind;
+}
@@ -0,0 +1,16 @@
+package com.javachat.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// From handing a message to the EDT until it is shown, so it includes the wait in the event queue
+@Name("com.javachat.MessageDispatched")
+@Label("Message Dispatched")
+@Category({"Java Chat", "Messages"})
+@Description("A message waited for and was shown on the event dispatch thread")
+@StackTrace(false)
+public class MessageDispatchedEvent extends MessageEvent {
+}
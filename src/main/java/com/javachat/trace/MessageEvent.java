@@ -0,0 +1,13 @@
+package com.javachat.trace;
+
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+
+// Common fields of the message lifecycle events; the peer is who sent or receives the message
+public abstract class MessageEvent extends Event {
+    @Label("Message Id")
+    public long messageId;
+
+    @Label("Peer")
+    public String peer;
+}
@@ -0,0 +1,16 @@
+package com.javachat.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// Time spent saving a message to SQLite
+@Name("com.javachat.MessagePersisted")
+@Label("Message Persisted")
+@Category({"Java Chat", "Messages"})
+@Description("A message was written to the database")
+@StackTrace(false)
+public class MessagePersistedEvent extends MessageEvent {
+}
@@ -0,0 +1,18 @@
+package com.javachat.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// Instant event for every line read from a peer, before any processing
+@Name("com.javachat.MessageReceived")
+@Label("Message Received")
+@Category({"Java Chat", "Messages"})
+@Description("A complete line arrived from a peer")
+@StackTrace(false)
+public class MessageReceivedEvent extends MessageEvent {
+    @Label("Bytes")
+    public int bytes;
+}
@@ -0,0 +1,81 @@
+package com.javachat.trace;
+
+import jdk.jfr.EventType;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Message ids and helpers for the Flight Recorder lifecycle events in this package.
+// A line gets an id when it enters the process (read from a socket or typed by the user) and
+// every event about it carries that id, so a recording grouped by messageId shows where a slow
+// message spent its time: received -> decoded -> persisted -> dispatched / written.
+// Every helper checks the cached EventType before creating an event, so with no recording
+// running a call site costs one enabled check and allocates nothing.
+// Record with: java -XX:StartFlightRecording:filename=chat.jfr ... and open it in JMC or "jfr print".
+public final class MessageTrace {
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
+    private static final EventType RECEIVED = EventType.getEventType(MessageReceivedEvent.class);
+    private static final EventType DECODED = EventType.getEventType(MessageDecodedEvent.class);
+    private static final EventType PERSISTED = EventType.getEventType(MessagePersistedEvent.class);
+    private static final EventType DISPATCHED = EventType.getEventType(MessageDispatchedEvent.class);
+    private static final EventType WRITTEN = EventType.getEventType(MessageWrittenEvent.class);
+
+    private MessageTrace() {
+    }
+
+    public static long nextId() {
+        return NEXT_ID.incrementAndGet();
+    }
+
+    public static void received(long messageId, String peer, int bytes) {
+        if (!RECEIVED.isEnabled()) return;
+        MessageReceivedEvent event = new MessageReceivedEvent();
+        event.messageId = messageId;
+        event.peer = peer;
+        event.bytes = bytes;
+        event.commit();
+    }
+
+    // Starts timing one stage; each returns null when the event is disabled
+    public static MessageDecodedEvent decoding() {
+        return DECODED.isEnabled() ? begin(new MessageDecodedEvent()) : null;
+    }
+
+    public static MessagePersistedEvent persisting() {
+        return PERSISTED.isEnabled() ? begin(new MessagePersistedEvent()) : null;
+    }
+
+    public static MessageDispatchedEvent dispatching() {
+        return DISPATCHED.isEnabled() ? begin(new MessageDispatchedEvent()) : null;
+    }
+
+    public static MessageWrittenEvent writing(int bytes) {
+        if (!WRITTEN.isEnabled()) return null;
+        MessageWrittenEvent event = begin(new MessageWrittenEvent());
+        if (event != null) event.bytes = bytes;
+        return event;
+    }
+
+    public static void decoded(MessageDecodedEvent event, long messageId, String peer, String kind) {
+        if (event == null) return;
+        event.kind = kind;
+        end(event, messageId, peer);
+    }
+
+    // Finishes a stage started above; a null event is ignored
+    public static void end(MessageEvent event, long messageId, String peer) {
+        if (event == null) return;
+        event.end();
+        if (event.shouldCommit()) {
+            event.messageId = messageId;
+            event.peer = peer;
+            event.commit();
+        }
+    }
+
+    private static <E extends MessageEvent> E begin(E event) {
+        if (!event.isEnabled()) return null;
+        event.begin();
+        return event;
+    }
+}
@@ -0,0 +1,18 @@
+package com.javachat.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// From queueing a message for one recipient until the socket accepted all of it
+@Name("com.javachat.MessageWritten")
+@Label("Message Written")
+@Category({"Java Chat", "Messages"})
+@Description("A message was queued for and written to one recipient")
+@StackTrace(false)
+public class MessageWrittenEvent extends MessageEvent {
+    @Label("Bytes")
+    public int bytes;
+}
@@ -0,0 +1,202 @@
+package com.javachat.transfer;
+
+import com.javachat.metrics.Metrics;
+import com.javachat.net.HashedTimerWheel;
+import com.javachat.store.AttachmentStore;
+import com.javachat.store.MessageStore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// Deduplicating file transfer between two peers.
+// The sender offers a digest first and only sends the bytes if the receiver asks for them:
+//   sender   -> OFFER:<digest>:<type>:<name>
+//   receiver -> HAVE:<digest>   (already stored, nothing else is sent)
+//            or WANT:<digest>
+//   sender   -> BLOB:<digest>:<type>:<base64>
+// Plain "FILE:<type>:<base64>" lines from older peers are still accepted.
+public class AttachmentTransfer {
+    public static final String OFFER = "OFFER:";
+    public static final String HAVE = "HAVE:";
+    public static final String WANT = "WANT:";
+    public static final String BLOB = "BLOB:";
+    public static final String LEGACY_FILE = "FILE:";
+    private static final long OFFER_TTL_MINUTES = 10; // How long an offer can still be answered
+    private static final long WANT_TTL_MINUTES = 10;  // How long we wait for a file we asked for
+
+    private static final LongAdder OFFERS = Metrics.counter("attachments.wire.offers");
+    private static final LongAdder HITS = Metrics.counter("attachments.wire.alreadyPresent");
+    private static final LongAdder BYTES_SENT = Metrics.counter("attachments.wire.bytesSent");
+    private static final LongAdder BYTES_SKIPPED = Metrics.counter("attachments.wire.bytesSkipped");
+
+    // Called when a file from the peer has been registered as a download
+    public interface ReceiveListener {
+        void onFileReceived(String peer, Download download);
+    }
+
+    private final AttachmentStore attachments;
+    private final MessageStore messages;
+    private final Executor saver;          // Runs database writes, so the reader thread never waits for them
+    private final DownloadManager downloads;
+    private final Consumer<String> sender;
+    private final ReceiveListener listener;
+    private final ConcurrentHashMap<String, Offer> offers = new ConcurrentHashMap<>();  // Our offers, by digest
+    private final ConcurrentHashMap<String, Wanted> wanted = new ConcurrentHashMap<>(); // Files we asked for
+    // Encodes and writes requested files; the write blocks, so it must not tie up a shared pool
+    private final ExecutorService blobSender = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "chat-transfer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public AttachmentTransfer(AttachmentStore attachments, MessageStore messages, Executor saver,
+                              DownloadManager downloads, Consumer<String> sender, ReceiveListener listener) {
+        this.attachments = attachments;
+        this.messages = messages;
+        this.saver = saver;
+        this.downloads = downloads;
+        this.sender = sender;
+        this.listener = listener;
+    }
+
+    // Stores a file we send and offers it to the peer; returns its digest
+    public String offer(byte[] bytes, String fileType, String name) throws IOException {
+        String digest = attachments.put(bytes);
+        Offer offer = new Offer(fileType, bytes.length);
+        offers.put(digest, offer);
+        HashedTimerWheel.shared().schedule(() -> offers.remove(digest, offer), OFFER_TTL_MINUTES, TimeUnit.MINUTES);
+        OFFERS.increment();
+        sender.accept(OFFER + digest + ":" + fileType + ":" + name.replaceAll("[\\r\\n]", "_"));
+        return digest;
+    }
+
+    // Handles a transfer line from the peer; returns false if the line is not part of this protocol
+    public boolean handle(String peer, String line) {
+        if (line.startsWith(OFFER)) {
+            onOffer(peer, line);
+        } else if (line.startsWith(HAVE)) {
+            Offer offer = offers.get(line.substring(HAVE.length()));
+            if (offer != null) {
+                HITS.increment();
+                BYTES_SKIPPED.add(offer.size);
+            }
+        } else if (line.startsWith(WANT)) {
+            String digest = line.substring(WANT.length());
+            Offer offer = offers.get(digest);
+            if (offer != null && offer.blobSent.compareAndSet(false, true)) {
+                blobSender.execute(() -> sendBlob(digest, offer)); // Keep reading while the file is encoded
+            }
+        } else if (line.startsWith(BLOB)) {
+            onBlob(peer, line);
+        } else if (line.startsWith(LEGACY_FILE)) {
+            onLegacyFile(peer, line);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private void onOffer(String peer, String line) {
+        String[] parts = line.substring(OFFER.length()).split(":", 3); // digest, type, name
+        if (parts.length != 3 || !AttachmentStore.isValidDigest(parts[0])) return;
+        String digest = parts[0];
+        if (attachments.contains(digest)) {
+            sender.accept(HAVE + digest); // The bytes never cross the wire
+            Download download = downloads.addExisting(peer, parts[1], parts[2], digest);
+            save(peer, describe(parts[1], parts[2]), digest);
+            listener.onFileReceived(peer, download);
+        } else {
+            Wanted request = new Wanted(parts[1], parts[2]);
+            wanted.put(digest, request);
+            // Forget the request if the file never comes, e.g. it was dropped or the sender went away
+            HashedTimerWheel.shared().schedule(() -> wanted.remove(digest, request), WANT_TTL_MINUTES, TimeUnit.MINUTES);
+            sender.accept(WANT + digest);
+        }
+    }
+
+    // Forgets files asked for on a connection that has closed; they can only arrive on a new offer
+    public void onDisconnected() {
+        wanted.clear();
+    }
+
+    private void onBlob(String peer, String line) {
+        int digestEnd = line.indexOf(':', BLOB.length());
+        int typeEnd = digestEnd < 0 ? -1 : line.indexOf(':', digestEnd + 1);
+        if (typeEnd < 0) return;
+        String digest = line.substring(BLOB.length(), digestEnd);
+        Wanted request = wanted.remove(digest);
+        if (request == null) return; // Not asked for, e.g. another receiver on a relay wanted it
+        Download download = downloads.submit(peer, request.fileType, request.name, line.substring(typeEnd + 1), digest);
+        save(peer, describe(request.fileType, request.name), digest);
+        listener.onFileReceived(peer, download);
+    }
+
+    private void onLegacyFile(String peer, String line) {
+        String[] parts = line.split(":", 3); // Split into "FILE", type, and base64 data
+        if (parts.length != 3) return;
+        Download download = downloads.submit(peer, parts[1], null, parts[2], null);
+        CompletableFuture<Long> saved = save(peer, describe(parts[1], null), null);
+        // The digest is only known once the content has been hashed
+        download.done().thenAcceptBothAsync(saved, (d, id) -> {
+            if (d.status() != Download.Status.DONE || id < 0) return;
+            try {
+                messages.attach(id, d.digest());
+            } catch (SQLException e) {
+                System.err.println("Error linking attachment: " + e.getMessage());
+            }
+        }, saver);
+        listener.onFileReceived(peer, download);
+    }
+
+    private void sendBlob(String digest, Offer offer) {
+        try {
+            byte[] bytes = Files.readAllBytes(attachments.pathFor(digest));
+            sender.accept(BLOB + digest + ":" + offer.fileType + ":" + Base64.getEncoder().encodeToString(bytes));
+            BYTES_SENT.add(bytes.length);
+        } catch (IOException e) {
+            System.err.println("Error sending file: " + e.getMessage());
+            offer.blobSent.set(false); // Let a later WANT try again
+        }
+    }
+
+    // Text stored in the messages table for a received file
+    private static String describe(String fileType, String name) {
+        return "Sent " + fileType + " file" + (name != null ? ": " + name : "");
+    }
+
+    // Queues the message on the saver; completes with its id, or -1 if it could not be saved
+    private CompletableFuture<Long> save(String peer, String text, String digest) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return messages.save(peer, text, digest);
+            } catch (SQLException e) {
+                System.err.println("Error saving message: " + e.getMessage());
+                return -1L;
+            }
+        }, saver);
+    }
+
+    private static final class Offer {
+        final String fileType;
+        final long size;
+        final AtomicBoolean blobSent = new AtomicBoolean();
+
+        Offer(String fileType, long size) {
+            this.fileType = fileType;
+            this.size = size;
+        }
+    }
+
+    private record Wanted(String fileType, String name) {}
+}
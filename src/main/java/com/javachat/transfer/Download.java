@@ -0,0 +1,67 @@
+package com.javachat.transfer;
+
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+// One received file, stored in the attachment store in the background
+public class Download {
+    public enum Status { RECEIVING, DONE, FAILED }
+
+    private final long id;
+    private final String sender;
+    private final String fileType;
+    private final CompletableFuture<Download> done = new CompletableFuture<>();
+    private volatile String name;  // File name shown to the user and suggested when saving
+    private volatile Status status = Status.RECEIVING;
+    private volatile Path file;    // Location in the attachment store, set once stored
+    private volatile String digest; // Content digest, set once stored
+    private volatile long size;    // Decoded size in bytes
+    private volatile String error; // Failure reason, if any
+
+    Download(long id, String sender, String fileType, String name) {
+        this.id = id;
+        this.sender = sender;
+        this.fileType = fileType;
+        this.name = name;
+    }
+
+    public long id() { return id; }
+    public String sender() { return sender; }
+    public String fileType() { return fileType; }
+    public String name() { return name; }
+    public Status status() { return status; }
+    public Path file() { return file; }
+    public String digest() { return digest; }
+    public long size() { return size; }
+    public String error() { return error; }
+
+    // Completes when the file is stored or has failed
+    public CompletableFuture<Download> done() { return done; }
+
+    void completed(Path file, long size, String digest) {
+        this.file = file;
+        this.size = size;
+        this.digest = digest;
+        this.status = Status.DONE;
+        done.complete(this);
+    }
+
+    void failed(String error) {
+        this.error = error;
+        this.status = Status.FAILED;
+        done.complete(this);
+    }
+
+    void renamed(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        return switch (status) {
+            case RECEIVING -> fileType + " from " + sender + " - receiving...";
+            case DONE -> name + " (" + fileType + " from " + sender + ", " + (size + 1023) / 1024 + " KB)";
+            case FAILED -> fileType + " from " + sender + " - failed: " + error;
+        };
+    }
+}
@@ -0,0 +1,6 @@
+package com.javachat.transfer;
+
+// Notified when a download is added or changes state; called from the download I/O thread
+public interface DownloadListener {
+    void onDownloadUpdated(Download download);
+}
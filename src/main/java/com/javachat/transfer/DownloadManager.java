@@ -0,0 +1,182 @@
+package com.javachat.transfer;
+
+import com.javachat.store.AttachmentStore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Receives files off the network reader thread.
+// Incoming payloads are Base64-decoded as a stream into a spool directory on a dedicated
+// I/O thread, hashed on the way, and then moved into the content-addressed attachment
+// store, so the reader goes straight back to readLine(). Users rename downloads or save
+// copies of them later from the downloads panel.
+public class DownloadManager {
+    private final Path spoolDir;
+    private final AttachmentStore attachments;
+    private final ExecutorService io;
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final List<Download> downloads = new CopyOnWriteArrayList<>();
+    private final List<DownloadListener> listeners = new CopyOnWriteArrayList<>();
+
+    public DownloadManager(Path spoolDir, AttachmentStore attachments) {
+        this.spoolDir = spoolDir;
+        this.attachments = attachments;
+        this.io = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "chat-download-io");
+            t.setDaemon(true); // Pending writes must not keep the app open after the window closes
+            return t;
+        });
+    }
+
+    public void addListener(DownloadListener listener) {
+        listeners.add(listener);
+    }
+
+    public List<Download> downloads() {
+        return List.copyOf(downloads);
+    }
+
+    // Queues a received file for storing and returns immediately.
+    // If expectedDigest is not null the content must match it, otherwise the download fails.
+    public Download submit(String sender, String fileType, String name, String base64, String expectedDigest) {
+        Download download = newDownload(sender, fileType, name);
+        io.execute(() -> spool(download, base64, expectedDigest));
+        return download;
+    }
+
+    // Registers a file we already had in the attachment store; nothing is transferred
+    public Download addExisting(String sender, String fileType, String name, String digest) {
+        Download download = newDownload(sender, fileType, name);
+        try {
+            Path file = attachments.pathFor(digest);
+            download.completed(file, Files.size(file), digest);
+        } catch (IOException | IllegalArgumentException e) {
+            download.failed(e.getMessage());
+        }
+        notifyListeners(download);
+        return download;
+    }
+
+    // Changes the name shown for a download; the stored content stays where it is
+    public void rename(Download download, String newName) {
+        download.renamed(newName);
+        notifyListeners(download);
+    }
+
+    // Saves a copy of a finished download, e.g. to a location picked in a file chooser.
+    // The original stays in the attachment store, where other messages may share it.
+    public CompletableFuture<Void> exportTo(Download download, Path target) {
+        return CompletableFuture.runAsync(() -> export(download, target), io);
+    }
+
+    public void shutdown() {
+        io.shutdown();
+    }
+
+    // Default name for a received file when the sender did not provide one
+    public static String defaultName(String fileType) {
+        return "received_" + fileType + "_" + System.currentTimeMillis() + "." + extensionFor(fileType);
+    }
+
+    private Download newDownload(String sender, String fileType, String name) {
+        Download download = new Download(nextId.getAndIncrement(), sender, fileType, name != null ? name : defaultName(fileType));
+        downloads.add(download);
+        notifyListeners(download);
+        return download;
+    }
+
+    private void spool(Download download, String base64, String expectedDigest) {
+        Path temp = spoolDir.resolve("download_" + download.id() + ".part");
+        try {
+            Files.createDirectories(spoolDir);
+            long size;
+            MessageDigest sha256 = AttachmentStore.newDigest();
+            // Decode in small chunks instead of materializing the whole file as a byte[]
+            try (InputStream in = Base64.getDecoder().wrap(new AsciiInputStream(base64));
+                 OutputStream out = new DigestOutputStream(Files.newOutputStream(temp), sha256)) {
+                size = in.transferTo(out);
+            }
+            String digest = HexFormat.of().formatHex(sha256.digest());
+            if (expectedDigest != null && !expectedDigest.equals(digest)) {
+                throw new IOException("Content does not match its digest");
+            }
+            Path file = attachments.putFile(temp, digest);
+            download.completed(file, size, digest);
+            System.out.println("File saved successfully: " + file.toAbsolutePath());
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Error saving file: " + e.getMessage());
+            download.failed(e.getMessage());
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // Nothing more we can do with a partial file
+            }
+        }
+        notifyListeners(download);
+    }
+
+    private void export(Download download, Path target) {
+        if (download.status() != Download.Status.DONE) throw new IllegalStateException("Download not finished yet");
+        try {
+            Files.copy(download.file(), target, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not save file: " + e.getMessage(), e);
+        }
+    }
+
+    private void notifyListeners(Download download) {
+        for (DownloadListener listener : listeners) listener.onDownloadUpdated(download);
+    }
+
+    // Method to get the file extension based on the file type
+    public static String extensionFor(String fileType) {
+        return switch (fileType.toLowerCase()) {
+            case "image" -> "png";
+            case "pdf" -> "pdf";
+            case "document" -> "docx";
+            case "text" -> "txt";
+            case "archive" -> "zip";
+            default -> "bin";
+        };
+    }
+
+    // Reads the chars of a Base64 string as bytes without copying the string
+    private static final class AsciiInputStream extends InputStream {
+        private final String text;
+        private int position;
+
+        AsciiInputStream(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public int read() {
+            return position < text.length() ? text.charAt(position++) & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            int remaining = text.length() - position;
+            if (remaining <= 0) return -1;
+            int n = Math.min(len, remaining);
+            for (int i = 0; i < n; i++) b[off + i] = (byte) text.charAt(position + i);
+            position += n;
+            return n;
+        }
+    }
+}
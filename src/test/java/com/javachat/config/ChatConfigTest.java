@@ -0,0 +1,33 @@
+package com.javachat.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class ChatConfigTest {
+    @Test
+    void environmentSetsCamelCaseKeys() {
+        ChatConfig config = ChatConfig.load(new String[0], Map.of(
+                "CHAT_SOCKET_TCPNODELAY", "false",
+                "CHAT_SOCKET_RECEIVEBUFFER", "262144",
+                "CHAT_TLS_KEYSTORE", "/etc/chat/server.p12"));
+        assertFalse(config.getBoolean(ChatConfig.TCP_NODELAY, true));
+        assertEquals(262144, config.getInt(ChatConfig.RECEIVE_BUFFER, 0));
+        assertEquals("/etc/chat/server.p12", config.getString("chat.tls.keyStore", null));
+    }
+
+    @Test
+    void argumentsOverrideEnvironment() {
+        ChatConfig config = ChatConfig.load(new String[]{"--chat.port=2200"}, Map.of("CHAT_PORT", "2300"));
+        assertEquals(2200, config.port());
+    }
+
+    @Test
+    void environmentOverridesDefaults() {
+        ChatConfig config = ChatConfig.load(new String[0], Map.of("CHAT_PORT", "2300"));
+        assertEquals(2300, config.port());
+    }
+}
@@ -0,0 +1,41 @@
+package com.javachat.ratelimit;
+
+import com.javachat.config.ChatConfig;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RateLimitsTest {
+    @Test
+    void emptyRoomsAreForgotten() {
+        RateLimits limits = RateLimits.from(ChatConfig.load(new String[0]));
+        RateLimiter first = limits.forConnection("lobby");
+        RateLimiter second = limits.forConnection("lobby");
+        assertEquals(1, limits.roomCount());
+
+        first.joinRoom("games");
+        assertEquals(2, limits.roomCount());
+        second.close();
+        assertEquals(1, limits.roomCount()); // Nobody left in the lobby
+        first.close();
+        assertEquals(0, limits.roomCount());
+    }
+
+    @Test
+    void roomLimitIsSharedAndReadFromConfig() {
+        RateLimits limits = RateLimits.from(ChatConfig.load(new String[]{
+                "--" + RateLimits.ROOM_MESSAGES_PER_SEC + "=1",
+                "--" + RateLimits.ROOM_MESSAGE_BURST + "=2",
+                "--" + RateLimits.MAX_DELAY_MS + "=0",
+        }));
+        RateLimiter first = limits.forConnection("lobby");
+        RateLimiter second = limits.forConnection("lobby");
+        RateLimiter elsewhere = limits.forConnection("games");
+
+        assertEquals(0, first.admit(10));
+        assertEquals(0, second.admit(10));
+        assertTrue(first.admit(10) < 0);     // The lobby's burst is used up
+        assertEquals(0, elsewhere.admit(10)); // Other rooms are not affected
+    }
+}